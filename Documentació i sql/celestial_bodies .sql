@@ -41,6 +41,7 @@ CREATE TABLE `celestial_bodies` (
   `y` double NOT NULL DEFAULT 0 COMMENT 'current y position (m)',
   `vx` double NOT NULL DEFAULT 0 COMMENT 'current x velocity (m/s)',
   `vy` double NOT NULL DEFAULT 0 COMMENT 'current y velocity (m/s)',
+  `is_particle` tinyint(1) NOT NULL DEFAULT 0 COMMENT 'test particle: feels gravity but exerts none',
   `created_at` timestamp NOT NULL DEFAULT current_timestamp()
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
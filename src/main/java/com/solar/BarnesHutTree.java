@@ -0,0 +1,266 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import java.util.Arrays;
+
+/**
+ * Arbre quaternari (quadtree) per calcular forces gravitatries amb l'algorisme de Barnes-Hut.
+ * L'arbre es reconstrueix a cada pas i cada node guarda la massa total i el centre de masses
+ * dels cossos que cont, de manera que el cost per pas passa de O(n) a O(n log n).
+ * Els nodes es guarden en arrays que es reutilitzen entre passos per no generar brossa.
+ * Noms s'hi insereixen els cossos massius; les partcules de prova recorren l'arbre
+ * per calcular la seva acceleraci per no hi aporten massa.
+ */
+public class BarnesHutTree {
+    private static final int MAX_DEPTH = 48;          // Profunditat mxima (cossos gaireb coincidents)
+    private static final int INITIAL_CAPACITY = 64;   // Capacitat inicial de nodes
+
+    // Arrays del magatzem sobre el qual s'ha construt l'arbre (no es copien)
+    private double[] bodyX, bodyY, bodyMass;
+    private int[] nextBody = new int[0];    // Llista enllaada de cossos dins d'una mateixa fulla
+    private int bodyCount;
+
+    // Dades dels nodes
+    private double[] centerX, centerY, halfSize;
+    private double[] nodeMass, comX, comY;
+    private int[] firstChild;   // ndex del primer dels 4 fills (-1 si el node s una fulla)
+    private int[] firstBody;    // Primer cos de la fulla (-1 si s buida)
+    private int nodeCount;
+
+    private int[] stack = new int[INITIAL_CAPACITY];
+
+    public BarnesHutTree() {
+        allocateNodes(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reconstrueix l'arbre amb les posicions i masses actuals dels cossos.
+     */
+    public void build(BodyStore store) {
+        int n = store.size();
+        if (nextBody.length < n) nextBody = new int[n];
+        bodyX = store.getXs();
+        bodyY = store.getYs();
+        bodyMass = store.getMasses();
+        bodyCount = n;
+
+        // Calcula la caixa contenidora dels cossos massius (les partcules no entren a l'arbre)
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (store.isParticle(i)) continue;
+            minX = Math.min(minX, bodyX[i]);
+            minY = Math.min(minY, bodyY[i]);
+            maxX = Math.max(maxX, bodyX[i]);
+            maxY = Math.max(maxY, bodyY[i]);
+        }
+
+        nodeCount = 0;
+        if (store.getMassiveCount() == 0) return;
+
+        // Arrel quadrada lleugerament ms gran que la caixa perqu cap cos quedi a la vora
+        double half = Math.max(maxX - minX, maxY - minY) / 2 * 1.0001 + 1.0;
+        newNode((minX + maxX) / 2, (minY + maxY) / 2, half);
+
+        for (int i = 0; i < n; i++) {
+            if (!store.isParticle(i)) insert(i);
+        }
+
+        // Converteix les sumes ponderades en centres de masses
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodeMass[node] > 0) {
+                comX[node] /= nodeMass[node];
+                comY[node] /= nodeMass[node];
+            }
+        }
+    }
+
+    /**
+     * Calcula l'acceleraci total sobre cada cos.
+     * @param theta Angle d'obertura: un node s'aproxima pel seu centre de masses si mida/distncia < theta
+     *              i el cos no hi s a dins (amb theta gran, un cos no s'atrau a si mateix)
+     * @param ax Buffer on s'escriu la component x de l'acceleraci de cada cos
+     * @param ay Buffer on s'escriu la component y de l'acceleraci de cada cos
+     */
+    public void computeAccelerations(double theta, double G, double softening, double[] ax, double[] ay) {
+        double thetaSquared = theta * theta;
+        for (int i = 0; i < bodyCount; i++) {
+            accelerationOf(i, thetaSquared, G, softening, ax, ay);
+        }
+    }
+
+    /**
+     * Calcula l'acceleraci noms dels cossos indicats (la resta de buffers no es toquen).
+     * @param indices ndexs dels cossos a calcular
+     * @param count Nombre d'ndexs vlids a l'array
+     */
+    public void computeAccelerations(double theta, double G, double softening,
+            int[] indices, int count, double[] ax, double[] ay) {
+        double thetaSquared = theta * theta;
+        for (int k = 0; k < count; k++) {
+            accelerationOf(indices[k], thetaSquared, G, softening, ax, ay);
+        }
+    }
+
+    /**
+     * Recorre l'arbre per calcular l'acceleraci del cos i.
+     */
+    private void accelerationOf(int i, double thetaSquared, double G, double softening,
+            double[] ax, double[] ay) {
+        double sumX = 0, sumY = 0;
+        double xi = bodyX[i], yi = bodyY[i];
+
+        int sp = 0;
+        if (nodeCount > 0) stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (nodeMass[node] == 0) continue;
+
+            if (firstChild[node] < 0) {
+                // Fulla: interacci exacta amb cada cos que cont
+                for (int b = firstBody[node]; b >= 0; b = nextBody[b]) {
+                    if (b == i) continue;
+                    double dx = bodyX[b] - xi;
+                    double dy = bodyY[b] - yi;
+                    double rSquared = dx * dx + dy * dy + softening;
+                    double f = G * bodyMass[b] / (rSquared * Math.sqrt(rSquared));
+                    sumX += f * dx;
+                    sumY += f * dy;
+                }
+                continue;
+            }
+
+            double dx = comX[node] - xi;
+            double dy = comY[node] - yi;
+            double distSquared = dx * dx + dy * dy;
+            double size = 2 * halfSize[node];
+
+            // Un node que cont el cos no s'aproxima mai: el cos notaria part de la seva prpia massa
+            boolean inside = Math.abs(xi - centerX[node]) <= halfSize[node]
+                    && Math.abs(yi - centerY[node]) <= halfSize[node];
+            if (!inside && size * size < thetaSquared * distSquared) {
+                // Node prou lluny: s'aproxima com una sola massa puntual
+                double rSquared = distSquared + softening;
+                double f = G * nodeMass[node] / (rSquared * Math.sqrt(rSquared));
+                sumX += f * dx;
+                sumY += f * dy;
+            } else {
+                if (sp + 4 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                int child = firstChild[node];
+                stack[sp++] = child;
+                stack[sp++] = child + 1;
+                stack[sp++] = child + 2;
+                stack[sp++] = child + 3;
+            }
+        }
+        ax[i] = sumX;
+        ay[i] = sumY;
+    }
+
+    /**
+     * Insereix el cos indicat baixant des de l'arrel.
+     */
+    private void insert(int body) {
+        int node = 0;
+        int depth = 0;
+        double m = bodyMass[body];
+
+        while (true) {
+            // Acumula la massa i la suma ponderada de posicions al node actual
+            nodeMass[node] += m;
+            comX[node] += m * bodyX[body];
+            comY[node] += m * bodyY[body];
+
+            if (firstChild[node] >= 0) {
+                node = firstChild[node] + quadrant(node, bodyX[body], bodyY[body]);
+                depth++;
+                continue;
+            }
+
+            if (firstBody[node] < 0) {
+                firstBody[node] = body;
+                nextBody[body] = -1;
+                return;
+            }
+
+            if (depth >= MAX_DEPTH) {
+                // Cossos prcticament coincidents: es guarden a la mateixa fulla
+                nextBody[body] = firstBody[node];
+                firstBody[node] = body;
+                return;
+            }
+
+            // Fulla ocupada: es divideix i el cos existent baixa al fill corresponent
+            int existing = firstBody[node];
+            firstBody[node] = -1;
+            subdivide(node);
+            int target = firstChild[node] + quadrant(node, bodyX[existing], bodyY[existing]);
+            double me = bodyMass[existing];
+            nodeMass[target] += me;
+            comX[target] += me * bodyX[existing];
+            comY[target] += me * bodyY[existing];
+            firstBody[target] = existing;
+            nextBody[existing] = -1;
+
+            node = firstChild[node] + quadrant(node, bodyX[body], bodyY[body]);
+            depth++;
+        }
+    }
+
+    /**
+     * Crea els 4 fills d'un node de manera consecutiva.
+     */
+    private void subdivide(int node) {
+        double h = halfSize[node] / 2;
+        double cx = centerX[node], cy = centerY[node];
+        // L'ordre ha de coincidir amb quadrant(): bit 0 = est, bit 1 = nord
+        int first = newNode(cx - h, cy - h, h);
+        newNode(cx + h, cy - h, h);
+        newNode(cx - h, cy + h, h);
+        newNode(cx + h, cy + h, h);
+        firstChild[node] = first;
+    }
+
+    private int quadrant(int node, double x, double y) {
+        int q = 0;
+        if (x >= centerX[node]) q |= 1;
+        if (y >= centerY[node]) q |= 2;
+        return q;
+    }
+
+    private int newNode(double cx, double cy, double half) {
+        if (nodeCount == centerX.length) allocateNodes(centerX.length * 2);
+        int node = nodeCount++;
+        centerX[node] = cx;
+        centerY[node] = cy;
+        halfSize[node] = half;
+        nodeMass[node] = 0;
+        comX[node] = 0;
+        comY[node] = 0;
+        firstChild[node] = -1;
+        firstBody[node] = -1;
+        return node;
+    }
+
+    private void allocateNodes(int capacity) {
+        if (centerX == null) {
+            centerX = new double[capacity];
+            centerY = new double[capacity];
+            halfSize = new double[capacity];
+            nodeMass = new double[capacity];
+            comX = new double[capacity];
+            comY = new double[capacity];
+            firstChild = new int[capacity];
+            firstBody = new int[capacity];
+            return;
+        }
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        halfSize = Arrays.copyOf(halfSize, capacity);
+        nodeMass = Arrays.copyOf(nodeMass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        firstBody = Arrays.copyOf(firstBody, capacity);
+    }
+}
@@ -0,0 +1,175 @@
+package com.solar;
+
+import com.solar.model.SimulationFrame;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Format binari compacte dels fotogrames (application/octet-stream), alternatiu al JSON.
+ * Els cossos s'identifiquen per la seva posici dins del fotograma, estable mentre no canvi
+ * l'poca de l'estructura; els noms, colors i radis s'obtenen un sol cop del JSON o del stream.
+ *
+ * Capalera (44 bytes, little-endian perqu el client la pugui llegir amb arrays tipats):
+ * <pre>
+ *  0  int32   magic "SSF1"
+ *  4  uint8   tipus: 0 = fotograma complet, 1 = delta
+ *  5  uint8[3] reservat
+ *  8  int64   tick
+ * 16  int64   tick de referncia del delta (-1 en un fotograma complet)
+ * 24  int64   poca de l'estructura (vegeu SimulationFrame.getStructureEpoch)
+ * 32  int32   nombre de cossos n
+ * 36  float32 escala del viewport
+ * 40  float32 quntum del delta en metres (0 en un fotograma complet)
+ * 44  complet: float32 x[n], float32 y[n]
+ *     delta:   int16 dx[n], int16 dy[n]; posici = referncia + d * quntum (arrodonida a float32)
+ * </pre>
+ * El client indica amb el parmetre "ack" l'ltim tick que ha rebut. Si el servidor encara t
+ * aquell fotograma a l'historial del client i l'estructura no ha canviat, envia un delta;
+ * si no, un fotograma complet. Els deltes es calculen respecte a les posicions que ha
+ * reconstrut el client, de manera que l'error de quantitzaci no s'acumula.
+ */
+public final class BinaryFrameEncoder {
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final int MAGIC = 0x31465353;   // "SSF1" en little-endian
+    private static final byte KEYFRAME = 0;
+    private static final byte DELTA = 1;
+    private static final int HEADER_BYTES = 44;
+    private static final int HISTORY_FRAMES = 4;   // Fotogrames enviats que es recorden per client
+
+    private BinaryFrameEncoder() {}
+
+    /**
+     * Indica si la petici demana el format binari (parmetre format=binary o capalera Accept).
+     */
+    public static boolean isRequested(HttpServletRequest req) {
+        if ("binary".equals(req.getParameter("format"))) return true;
+        String accept = req.getHeader("Accept");
+        return accept != null && accept.contains(CONTENT_TYPE);
+    }
+
+    /**
+     * Codifica un fotograma, com a delta si s possible.
+     * @param frame Fotograma adquirit
+     * @param scale Escala actual del viewport del client
+     * @param ackTick ltim tick rebut pel client, o -1
+     * @param history Historial de fotogrames enviats a aquest client
+     * @return Bytes del fotograma
+     */
+    public static byte[] encode(SimulationFrame frame, double scale, long ackTick, History history) {
+        synchronized (history) {
+            int n = frame.size();
+            long epoch = frame.getStructureEpoch();
+            int base = history.find(ackTick, epoch, n);
+            int slot = history.reserve(frame.getTick(), epoch, n, base);
+            float[] outX = history.xs[slot], outY = history.ys[slot];
+
+            if (base >= 0) {
+                float[] baseX = history.xs[base], baseY = history.ys[base];
+                double maxDelta = 0;
+                for (int i = 0; i < n; i++) {
+                    maxDelta = Math.max(maxDelta, Math.abs(frame.getX(i) - baseX[i]));
+                    maxDelta = Math.max(maxDelta, Math.abs(frame.getY(i) - baseY[i]));
+                }
+                // Marge d'una unitat perqu l'arrodoniment a float no faci desbordar l'int16
+                float quantum = maxDelta > 0 ? (float) (maxDelta / (Short.MAX_VALUE - 1)) : 1;
+                // Un quntum no representable (posicions no finites) obliga a enviar-ho tot
+                if (Float.isFinite(quantum) && quantum > 0) {
+                    ByteBuffer buffer = header(DELTA, frame, history.ticks[base], scale, quantum, n * 4);
+                    for (int i = 0; i < n; i++) {
+                        short q = (short) Math.round((frame.getX(i) - baseX[i]) / quantum);
+                        buffer.putShort(q);
+                        outX[i] = (float) (baseX[i] + q * (double) quantum);
+                    }
+                    for (int i = 0; i < n; i++) {
+                        short q = (short) Math.round((frame.getY(i) - baseY[i]) / quantum);
+                        buffer.putShort(q);
+                        outY[i] = (float) (baseY[i] + q * (double) quantum);
+                    }
+                    return buffer.array();
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                outX[i] = (float) frame.getX(i);
+                outY[i] = (float) frame.getY(i);
+            }
+            return encodeKeyframe(frame, scale);
+        }
+    }
+
+    /**
+     * Codifica un fotograma complet. No depn de cap client i es pot compartir entre tots
+     * els que miren la mateixa simulaci (vegeu FrameCache).
+     * @param scale Escala del viewport, o 0 si no correspon a cap viewport concret
+     */
+    public static byte[] encodeKeyframe(SimulationFrame frame, double scale) {
+        int n = frame.size();
+        ByteBuffer buffer = header(KEYFRAME, frame, -1, scale, 0, n * 8);
+        for (int i = 0; i < n; i++) buffer.putFloat((float) frame.getX(i));
+        for (int i = 0; i < n; i++) buffer.putFloat((float) frame.getY(i));
+        return buffer.array();
+    }
+
+    private static ByteBuffer header(byte type, SimulationFrame frame, long baseTick,
+            double scale, float quantum, int payloadBytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.put(type);
+        buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+        buffer.putLong(frame.getTick());
+        buffer.putLong(baseTick);
+        buffer.putLong(frame.getStructureEpoch());
+        buffer.putInt(frame.size());
+        buffer.putFloat((float) scale);
+        buffer.putFloat(quantum);
+        return buffer;
+    }
+
+    /**
+     * Posicions que ha reconstrut el client en els ltims fotogrames enviats.
+     * N'hi ha una per client (al SimulationRegistry).
+     */
+    public static final class History {
+        private final long[] ticks = new long[HISTORY_FRAMES];
+        private final long[] epochs = new long[HISTORY_FRAMES];
+        private final float[][] xs = new float[HISTORY_FRAMES][0];
+        private final float[][] ys = new float[HISTORY_FRAMES][0];
+        private int next;
+
+        public History() {
+            Arrays.fill(ticks, -1);
+        }
+
+        /**
+         * Cerca el fotograma enviat amb el tick indicat i la mateixa estructura.
+         * @return Posici a l'historial, o -1
+         */
+        private int find(long tick, long epoch, int n) {
+            if (tick < 0) return -1;
+            for (int k = 0; k < HISTORY_FRAMES; k++) {
+                if (ticks[k] == tick && epochs[k] == epoch && xs[k].length >= n) return k;
+            }
+            return -1;
+        }
+
+        /**
+         * Reserva una posici per al fotograma que s'est enviant, sense sobreescriure la referncia.
+         */
+        private int reserve(long tick, long epoch, int n, int base) {
+            int slot = next;
+            if (slot == base) slot = (slot + 1) % HISTORY_FRAMES;
+            next = (slot + 1) % HISTORY_FRAMES;
+            if (xs[slot].length < n) {
+                xs[slot] = new float[n];
+                ys[slot] = new float[n];
+            }
+            ticks[slot] = tick;
+            epochs[slot] = epoch;
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import com.solar.model.SimulationState;
+import java.util.Arrays;
+
+/**
+ * Passos de temps jerrquics per blocs (potncies de dos) per a l'integrador leapfrog.
+ * Cada cos es classifica en un nivell k segons el seu temps dinmic local, i noms es
+ * recalcula la seva acceleraci cada dt / 2^k. Aix els planetes interiors no obliguen
+ * tot el sistema a fer passos petits.
+ *
+ * Criteri de precisi: dt_i = eta * sqrt(r_i / |a_i|), on r_i s la distncia al centre
+ * de masses del sistema. Per a una rbita circular sqrt(r/a) = T / (2pi), de manera que eta
+ * fixa quina fracci de perode recorre un cos en cada pas.
+ */
+public class BlockTimestepScheduler {
+    private static final int MAX_LEVEL = 16;   // Pas mnim: dt / 65536
+    private static final double YEAR = 365.25 * 86400;
+
+    private volatile double eta = 0.02;        // Fracci de T/(2pi) per pas
+
+    private int[] level = new int[0];
+    private int[] active = new int[0];
+    private double comX, comY;                 // Centre de masses al comenament del pas
+
+    // Estadstiques d'avaluacions de fora (una avaluaci = l'acceleraci d'un cos)
+    private long forceEvaluations;
+    private long sharedStepEvaluations;   // Avaluacions amb un pas com igual al del nivell ms fi
+    private double simulatedTime;
+
+    /**
+     * Avana la simulaci un pas gran dt, subdividit segons els nivells de cada cos.
+     */
+    public synchronized void step(SimulationState state, double dt) {
+        BodyStore store = state.getBodyStore();
+        int n = store.size();
+        if (n == 0) return;
+
+        if (level.length < n) {
+            level = Arrays.copyOf(level, store.getXs().length);
+            active = new int[store.getXs().length];
+            store.setAccelerationsCurrent(false);
+        }
+
+        updateCenterOfMass(store);
+
+        // Al comenament cal tenir totes les acceleracions sincronitzades
+        if (!store.isAccelerationsCurrent()) {
+            PhysicsEngine.computeAccelerations(state);
+            forceEvaluations += n;
+            for (int i = 0; i < n; i++) {
+                level[i] = levelFor(store, i, dt);
+            }
+        }
+
+        int maxLevel = 0;
+        for (int i = 0; i < n; i++) maxLevel = Math.max(maxLevel, level[i]);
+        int substeps = 1 << maxLevel;
+        double h = dt / substeps;
+
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        double[] ax = store.getAxs(), ay = store.getAys();
+
+        for (int s = 0; s < substeps; s++) {
+            // 1. Mig impuls per als cossos que comencen el seu pas
+            for (int i = 0; i < n; i++) {
+                int stride = 1 << (maxLevel - level[i]);
+                if (s % stride == 0) {
+                    double halfStep = h * stride / 2;
+                    vx[i] += ax[i] * halfStep;
+                    vy[i] += ay[i] * halfStep;
+                }
+            }
+
+            // 2. Deriva de tots els cossos
+            for (int i = 0; i < n; i++) {
+                x[i] += vx[i] * h;
+                y[i] += vy[i] * h;
+            }
+
+            // 3. Cossos que acaben el seu pas: nova acceleraci i segon mig impuls
+            int activeCount = 0;
+            for (int i = 0; i < n; i++) {
+                if ((s + 1) % (1 << (maxLevel - level[i])) == 0) {
+                    active[activeCount++] = i;
+                }
+            }
+            // Si cap cos acaba el seu pas no cal reconstruir l'arbre ni avaluar forces
+            if (activeCount == 0) continue;
+            PhysicsEngine.computeAccelerations(state, active, activeCount);
+            forceEvaluations += activeCount;
+
+            for (int k = 0; k < activeCount; k++) {
+                int i = active[k];
+                int stride = 1 << (maxLevel - level[i]);
+                double halfStep = h * stride / 2;
+                vx[i] += ax[i] * halfStep;
+                vy[i] += ay[i] * halfStep;
+
+                // Reclassifica el cos: pot baixar a un nivell ms fi en qualsevol moment,
+                // per noms pot pujar quan el pas ms gran tamb est sincronitzat
+                int wanted = Math.min(levelFor(store, i, dt), maxLevel);
+                if (wanted > level[i]) {
+                    level[i] = wanted;
+                } else if (wanted < level[i] && (s + 1) % (2 * stride) == 0) {
+                    level[i]--;
+                }
+            }
+        }
+
+        // Al final del pas gran tots els cossos estan sincronitzats
+        store.setAccelerationsCurrent(true);
+        sharedStepEvaluations += (long) n * substeps;
+        simulatedTime += dt;
+    }
+
+    /**
+     * Calcula el nivell que necessita el cos i segons el criteri de precisi.
+     */
+    private int levelFor(BodyStore store, int i, double dt) {
+        double[] x = store.getXs(), y = store.getYs();
+        double a = Math.hypot(store.getAxs()[i], store.getAys()[i]);
+        if (a == 0) return 0;
+
+        double r = Math.hypot(x[i] - comX, y[i] - comY);
+        double tau = eta * Math.sqrt(Math.max(r, 1.0) / a);
+        if (tau >= dt) return 0;
+        int k = (int) Math.ceil(Math.log(dt / tau) / Math.log(2));
+        return Math.min(k, MAX_LEVEL);
+    }
+
+    /**
+     * Calcula el centre de masses del sistema, que es fa servir com a referncia de distncies.
+     */
+    private void updateCenterOfMass(BodyStore store) {
+        double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+        double m = 0, sx = 0, sy = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (store.isParticle(i)) continue;
+            m += mass[i];
+            sx += mass[i] * x[i];
+            sy += mass[i] * y[i];
+        }
+        comX = m > 0 ? sx / m : 0;
+        comY = m > 0 ? sy / m : 0;
+    }
+
+    /** Retorna el parmetre de precisi eta. */
+    public double getEta() { return eta; }
+
+    /**
+     * Defineix el parmetre de precisi eta (fracci de T/(2pi) per pas).
+     * Valors ms petits donen ms precisi i ms avaluacions de fora.
+     */
+    public void setEta(double eta) {
+        if (!(eta > 0)) {
+            throw new IllegalArgumentException("El parmetre eta ha de ser positiu");
+        }
+        this.eta = eta;
+    }
+
+    /** Retorna el total d'avaluacions de fora fetes. */
+    public synchronized long getForceEvaluations() { return forceEvaluations; }
+
+    /**
+     * Retorna quantes avaluacions de fora s'estalvien per any simulat respecte
+     * a fer servir per a tots els cossos el pas del nivell ms fi.
+     */
+    public synchronized double getEvaluationsSavedPerYear() {
+        if (simulatedTime == 0) return 0;
+        return (sharedStepEvaluations - forceEvaluations) / simulatedTime * YEAR;
+    }
+}
@@ -0,0 +1,81 @@
+package com.solar;
+
+import com.solar.model.CelestialBody;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cpia en memria de la taula celestial_bodies, perqu crear o reiniciar una simulaci
+ * no hagi de tornar a llegir la base de dades. La fa servir DbManager: les lectures es
+ * serveixen d'aqu i les escriptures de l'aplicaci la invaliden.
+ *
+ * Cada invalidaci incrementa la versi. Una crrega que ha comenat abans d'una escriptura
+ * no es desa, perqu podria no incloure-la. Els canvis fets a la base de dades des de fora
+ * de l'aplicaci es veuen quan la cpia supera l'antiguitat mxima.
+ */
+final class BodyCatalog {
+    private final long maxAgeMillis;
+
+    private List<CelestialBody> bodies;   // Immutable; null si s'ha de tornar a carregar
+    private long version;
+    private long loadedAt;
+    private long loads;
+
+    /**
+     * Lectura de tots els cossos de la base de dades.
+     */
+    interface Loader {
+        List<CelestialBody> load() throws SQLException;
+    }
+
+    /**
+     * @param maxAgeMillis Antiguitat mxima de la cpia (0 = noms s'invalida amb les escriptures)
+     */
+    BodyCatalog(long maxAgeMillis) {
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("L'antiguitat mxima del catleg no pot ser negativa");
+        }
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Retorna tots els cossos, carregant-los si la cpia no s vlida.
+     * Els cossos retornats sn compartits i no s'han de modificar.
+     */
+    List<CelestialBody> get(Loader loader) throws SQLException {
+        long loadVersion;
+        synchronized (this) {
+            if (bodies != null && (maxAgeMillis == 0 || System.currentTimeMillis() - loadedAt < maxAgeMillis)) {
+                return bodies;
+            }
+            loadVersion = version;
+        }
+        // La consulta es fa fora del bloqueig
+        List<CelestialBody> loaded = Collections.unmodifiableList(new ArrayList<>(loader.load()));
+        synchronized (this) {
+            loads++;
+            if (version == loadVersion) {
+                bodies = loaded;
+                loadedAt = System.currentTimeMillis();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Descarta la cpia desprs d'una escriptura a la taula.
+     */
+    synchronized void invalidate() {
+        version++;
+        bodies = null;
+    }
+
+    /** Retorna la versi actual: canvia amb cada escriptura. */
+    synchronized long getVersion() { return version; }
+
+    /** Retorna quantes vegades s'ha llegit la taula sencera. */
+    synchronized long getLoadCount() { return loads; }
+}
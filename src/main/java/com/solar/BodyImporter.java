@@ -0,0 +1,311 @@
+package com.solar;
+
+import com.solar.model.CelestialBody;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lector de catlegs d'elements orbitals per importar molts cossos alhora.
+ * El fitxer es llegeix mapat a memria per finestres i els cossos es creen d'un en un a mesura
+ * que es demanen, de manera que la memria usada no depn de la mida del fitxer.
+ *
+ * Cada lnia s un cos amb els camps: nom, massa (kg), semieix major (m), excentricitat,
+ * radi (px), color i, opcionalment, partcula (1/0 o true/false). Es creen com els cossos
+ * de PlanetAdminServlet: al periheli i amb velocitat 0 (vegeu CelestialBody.fromOrbitalElements).
+ * <ul>
+ *   <li>CSV: camps separats per comes, sense cometes. Si la primera lnia comena per "name",
+ *       s la capalera i se salta.</li>
+ *   <li>Amplada fixa: cada camp ocupa el nombre de carcters indicat (vegeu DEFAULT_WIDTHS);
+ *       els espais del voltant s'ignoren i l'ltim camp pot faltar.</li>
+ * </ul>
+ * Les lnies buides i les que comencen per '#' s'ignoren. Una lnia no vlida atura la
+ * lectura amb una IllegalArgumentException que n'indica el nmero.
+ */
+public final class BodyImporter implements Iterator<CelestialBody>, Closeable {
+    /** Amplades per defecte del format d'amplada fixa, en l'ordre dels camps. */
+    public static final int[] DEFAULT_WIDTHS = {24, 16, 16, 12, 6, 10, 1};
+
+    private static final long WINDOW_BYTES = 64L * 1024 * 1024;  // Mida de cada finestra mapada
+    private static final int MAX_LINE_BYTES = 4096;
+    private static final int FIELDS = 7;
+    private static final int REQUIRED_FIELDS = 6;
+    private static final int MAX_NAME_LENGTH = 50;    // Columnes de la taula celestial_bodies
+    private static final int MAX_COLOR_LENGTH = 20;
+
+    private static volatile long maxFileBytes = 512L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int[] widths;                       // null = CSV
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldEnd = new int[FIELDS];
+    private long lineNumber;
+    private boolean started;                          // S'ha llegit alguna lnia amb dades
+    private CelestialBody next;
+
+    /**
+     * Obre un catleg.
+     * @param file Fitxer a llegir
+     * @param widths Amplades dels camps del format d'amplada fixa, o null si s CSV
+     * @throws IOException Si no es pot obrir el fitxer
+     */
+    public BodyImporter(Path file, int[] widths) throws IOException {
+        if (widths != null && widths.length < REQUIRED_FIELDS) {
+            throw new IllegalArgumentException("Calen almenys " + REQUIRED_FIELDS + " amplades de camp");
+        }
+        this.widths = widths;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+    }
+
+    /**
+     * Defineix la mida mxima dels fitxers que es poden importar.
+     */
+    public static void setMaxFileBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("La mida mxima d'importaci ha de ser positiva");
+        }
+        maxFileBytes = bytes;
+    }
+
+    /**
+     * Desa un catleg rebut al fitxer indicat, sense passar de la mida mxima.
+     * @return Fals si el catleg supera la mida mxima (el fitxer queda incomplet)
+     */
+    public static boolean copy(InputStream in, Path file) throws IOException {
+        long limit = maxFileBytes;
+        long total = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                total += read;
+                if (total > limit) return false;
+                out.write(buffer, 0, read);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Interpreta una llista d'amplades separades per comes (per exemple "24,16,16,12,6,10,1").
+     * @return Les amplades, o DEFAULT_WIDTHS si el text s null o buit
+     */
+    public static int[] parseWidths(String text) {
+        if (text == null || text.trim().isEmpty()) return DEFAULT_WIDTHS.clone();
+        String[] parts = text.split(",");
+        if (parts.length < REQUIRED_FIELDS || parts.length > FIELDS) {
+            throw new IllegalArgumentException("Calen entre " + REQUIRED_FIELDS + " i " + FIELDS + " amplades de camp");
+        }
+        int[] widths = new int[parts.length];
+        for (int k = 0; k < parts.length; k++) {
+            widths[k] = Integer.parseInt(parts[k].trim());
+            if (widths[k] <= 0) {
+                throw new IllegalArgumentException("Les amplades de camp han de ser positives");
+            }
+        }
+        return widths;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        try {
+            int length;
+            while ((length = readLine()) >= 0) {
+                lineNumber++;
+                if (lineNumber == 1) length = skipByteOrderMark(length);
+                int start = skipBlanks(0, length);
+                if (start == length || line[start] == '#') continue;
+                int fields = widths == null ? splitCsv(length) : splitFixed(length);
+                boolean first = !started;
+                started = true;
+                if (first && widths == null && isHeader()) continue;
+                next = parse(fields);
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public CelestialBody next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        CelestialBody body = next;
+        next = null;
+        return body;
+    }
+
+    /** Retorna el nmero de l'ltima lnia llegida. */
+    public long getLineNumber() { return lineNumber; }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Copia la lnia segent (sense el salt de lnia) a l'array de lnia.
+     * @return Longitud de la lnia, o -1 al final del fitxer
+     */
+    private int readLine() throws IOException {
+        if (!fill()) return -1;
+        int length = 0;
+        while (fill()) {
+            while (window.hasRemaining()) {
+                byte b = window.get();
+                if (b == '\n') {
+                    return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+                }
+                if (length == MAX_LINE_BYTES) {
+                    lineNumber++;
+                    throw error("la lnia supera els " + MAX_LINE_BYTES + " bytes");
+                }
+                line[length++] = b;
+            }
+        }
+        // ltima lnia sense salt de lnia
+        return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+    }
+
+    /**
+     * Mapa la finestra segent del fitxer si l'actual s'ha acabat.
+     * Una lnia partida entre dues finestres ja s a l'array de lnia i continua a la nova.
+     * @return Fals si no queda res per llegir
+     */
+    private boolean fill() throws IOException {
+        if (window != null && window.hasRemaining()) return true;
+        long position = window == null ? 0 : windowStart + window.limit();
+        if (position >= fileSize) return false;
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, fileSize - position));
+        return true;
+    }
+
+    private int skipByteOrderMark(int length) {
+        if (length >= 3 && (line[0] & 0xFF) == 0xEF && (line[1] & 0xFF) == 0xBB && (line[2] & 0xFF) == 0xBF) {
+            System.arraycopy(line, 3, line, 0, length - 3);
+            return length - 3;
+        }
+        return length;
+    }
+
+    private int splitCsv(int length) {
+        int fields = 0;
+        int start = 0;
+        for (int k = 0; k <= length; k++) {
+            if (k == length || line[k] == ',') {
+                if (fields == FIELDS) throw error("hi ha ms de " + FIELDS + " camps");
+                setField(fields++, start, k);
+                start = k + 1;
+            }
+        }
+        return fields;
+    }
+
+    private int splitFixed(int length) {
+        int fields = 0;
+        int start = 0;
+        for (int width : widths) {
+            if (start >= length) break;
+            int end = Math.min(start + width, length);
+            setField(fields++, start, end);
+            start = end;
+        }
+        return fields;
+    }
+
+    /**
+     * Desa els lmits d'un camp sense els espais del voltant.
+     */
+    private void setField(int field, int start, int end) {
+        start = skipBlanks(start, end);
+        while (end > start && (line[end - 1] == ' ' || line[end - 1] == '\t')) end--;
+        fieldStart[field] = start;
+        fieldEnd[field] = end;
+    }
+
+    private int skipBlanks(int start, int end) {
+        while (start < end && (line[start] == ' ' || line[start] == '\t')) start++;
+        return start;
+    }
+
+    private boolean isHeader() {
+        return "name".equalsIgnoreCase(text(0));
+    }
+
+    private CelestialBody parse(int fields) {
+        if (fields < REQUIRED_FIELDS) {
+            throw error("s'esperaven almenys " + REQUIRED_FIELDS + " camps i n'hi ha " + fields);
+        }
+        String name = new String(line, fieldStart[0], fieldEnd[0] - fieldStart[0], StandardCharsets.UTF_8);
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            throw error("el nom ha de tenir entre 1 i " + MAX_NAME_LENGTH + " carcters");
+        }
+        double mass = number(1, "massa");
+        double semiMajorAxis = number(2, "semieix major");
+        double eccentricity = number(3, "excentricitat");
+        if (mass < 0 || semiMajorAxis < 0) throw error("la massa i el semieix major no poden ser negatius");
+        if (eccentricity < 0 || eccentricity >= 1) throw error("l'excentricitat ha d'estar entre 0 i 1");
+        int radius;
+        try {
+            radius = Integer.parseInt(text(4));
+        } catch (NumberFormatException e) {
+            throw error("el radi no s un enter");
+        }
+        if (radius < 0) throw error("el radi no pot ser negatiu");
+        String color = text(5);
+        if (color.isEmpty() || color.length() > MAX_COLOR_LENGTH) {
+            throw error("el color ha de tenir entre 1 i " + MAX_COLOR_LENGTH + " carcters");
+        }
+        boolean particle = fields > REQUIRED_FIELDS && flag(REQUIRED_FIELDS);
+        return CelestialBody.fromOrbitalElements(name, mass, semiMajorAxis, eccentricity, radius, color, particle);
+    }
+
+    private double number(int field, String label) {
+        try {
+            double value = Double.parseDouble(text(field));
+            if (Double.isFinite(value)) return value;
+        } catch (NumberFormatException e) {
+            // Es tracta igual que un valor no finit
+        }
+        throw error("el camp " + label + " no s un nombre vlid");
+    }
+
+    private boolean flag(int field) {
+        String value = text(field);
+        if (value.isEmpty() || value.equals("0") || value.equalsIgnoreCase("false")) return false;
+        if (value.equals("1") || value.equalsIgnoreCase("true")) return true;
+        throw error("el camp partcula ha de ser 1, 0, true o false");
+    }
+
+    /**
+     * Text d'un camp; els camps que no sn el nom noms poden tenir carcters ASCII.
+     */
+    private String text(int field) {
+        return new String(line, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.ISO_8859_1);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Lnia " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,243 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import java.util.Arrays;
+
+/**
+ * Detecci de collisions amb una graella uniforme (spatial hash) i fusi dels cossos que xoquen.
+ * Cada cos t un radi de collisi proporcional al seu radi de pantalla (CelestialBody.radius).
+ * La graella fa que noms es comparin cossos de celles venes, de manera que el cost per pas
+ * s gaireb lineal en lloc de O(n).
+ *
+ * La graella es mant entre passos: noms es recolloquen els cossos que han canviat de cella,
+ * i noms es reconstrueix sencera quan canvia el conjunt de cossos. Els cossos molt grans
+ * (ms de mitja cella de radi) no hi entren i es comproven directament contra tots els altres.
+ */
+public class CollisionDetector {
+    private static final double DEFAULT_METERS_PER_PIXEL = 3.5e7; // El Sol (20 px) fa uns 7e8 m de radi
+    private static final int NONE = -1;
+
+    private volatile double metersPerPixel = DEFAULT_METERS_PER_PIXEL;
+
+    // Graella: taula de dispersi de celles amb llistes doblement enllaades de cossos
+    private double cellSize;
+    private int[] bucketHead = new int[0];
+    private int bucketMask;
+    private int[] next = new int[0], prev = new int[0];
+    private long[] cellOf = new long[0];      // Cella actual de cada cos
+    private boolean[] large = new boolean[0]; // Cossos fora de la graella
+    private int[] largeBodies = new int[0];
+    private int largeCount;
+
+    // Conjunt de cossos sobre el qual s'ha construt la graella
+    private BodyStore gridStore;
+    private long gridVersion = -1;
+    private double gridScale;
+
+    // Cossos absorbits durant el pas actual
+    private boolean[] absorbed = new boolean[0];
+    private int[] absorbedList = new int[0];
+    private int absorbedCount;
+
+    private long mergeCount;
+
+    /**
+     * Detecta els cossos que se superposen i fusiona cada parell conservant la massa i el moment lineal.
+     * Els cossos absorbits s'eliminen del magatzem.
+     * @return Nombre de fusions fetes en aquest pas
+     */
+    public synchronized int resolve(BodyStore store) {
+        int n = store.size();
+        if (n < 2) return 0;
+        updateGrid(store);
+
+        if (absorbed.length < n) {
+            absorbed = new boolean[n];
+            absorbedList = new int[n];
+        }
+        absorbedCount = 0;
+
+        // 1. Cossos petits: noms cal mirar les 3x3 celles del voltant
+        double[] x = store.getXs(), y = store.getYs();
+        for (int i = 0; i < n; i++) {
+            if (large[i] || absorbed[i]) continue;
+            long cx = cellCoordinate(x[i]), cy = cellCoordinate(y[i]);
+            for (long dx = -1; dx <= 1 && !absorbed[i]; dx++) {
+                for (long dy = -1; dy <= 1 && !absorbed[i]; dy++) {
+                    long key = cellKey(cx + dx, cy + dy);
+                    for (int j = bucketHead[bucket(key)]; j != NONE; j = next[j]) {
+                        // Cada parell es prova un sol cop; el filtre per clau evita repetir-lo
+                        // quan dues celles venes comparteixen cubeta de la taula
+                        if (j <= i || cellOf[j] != key || absorbed[j]) continue;
+                        if (overlaps(store, i, j) && merge(store, i, j) == i) break;
+                    }
+                }
+            }
+        }
+
+        // 2. Cossos grans: es comproven contra tots els altres
+        for (int k = 0; k < largeCount; k++) {
+            int i = largeBodies[k];
+            for (int j = 0; j < n && !absorbed[i]; j++) {
+                if (j == i || absorbed[j] || (large[j] && j < i)) continue;
+                if (overlaps(store, i, j)) merge(store, i, j);
+            }
+        }
+
+        int merged = absorbedCount;
+        if (merged > 0) {
+            for (int k = 0; k < merged; k++) absorbed[absorbedList[k]] = false;
+            Arrays.sort(absorbedList, 0, merged);
+            store.remove(absorbedList, merged);
+            mergeCount += merged;
+        }
+        return merged;
+    }
+
+    /** Retorna el nombre total de fusions des de la creaci del detector. */
+    public synchronized long getMergeCount() { return mergeCount; }
+
+    /** Retorna quants metres de radi de collisi corresponen a cada pxel de radi de pantalla. */
+    public double getMetersPerPixel() { return metersPerPixel; }
+
+    /**
+     * Defineix l'escala entre el radi de pantalla i el radi fsic de collisi.
+     * @param metersPerPixel Metres per pxel (ha de ser positiu)
+     */
+    public void setMetersPerPixel(double metersPerPixel) {
+        if (!(metersPerPixel > 0)) {
+            throw new IllegalArgumentException("L'escala de radis de collisi ha de ser positiva");
+        }
+        this.metersPerPixel = metersPerPixel;
+    }
+
+    /**
+     * Indica si els cossos i i j se superposen.
+     */
+    private boolean overlaps(BodyStore store, int i, int j) {
+        double dx = store.getXs()[j] - store.getXs()[i];
+        double dy = store.getYs()[j] - store.getYs()[i];
+        double reach = (store.getRadius(i) + store.getRadius(j)) * metersPerPixel;
+        return dx * dx + dy * dy < reach * reach;
+    }
+
+    /**
+     * Fusiona dos cossos: el ms massiu absorbeix l'altre conservant la massa, el moment lineal
+     * i el volum (radi de pantalla). El cos fusionat queda al centre de masses del parell.
+     * @return ndex del cos absorbit
+     */
+    private int merge(BodyStore store, int i, int j) {
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys(), mass = store.getMasses();
+
+        int survivor = mass[j] > mass[i] ? j : i;
+        int victim = survivor == i ? j : i;
+
+        double m = mass[survivor] + mass[victim];
+        // Dues partcules sense massa: es fa la mitjana simple
+        // (pesos calculats per separat: 1 - ws perdria precisi quan un cos s molt ms massiu)
+        double ws = m > 0 ? mass[survivor] / m : 0.5;
+        double wv = m > 0 ? mass[victim] / m : 0.5;
+        x[survivor] = ws * x[survivor] + wv * x[victim];
+        y[survivor] = ws * y[survivor] + wv * y[victim];
+        vx[survivor] = ws * vx[survivor] + wv * vx[victim];
+        vy[survivor] = ws * vy[survivor] + wv * vy[victim];
+        mass[survivor] = m;
+
+        double rs = store.getRadius(survivor), rv = store.getRadius(victim);
+        store.setRadius(survivor, (int) Math.round(Math.cbrt(rs * rs * rs + rv * rv * rv)));
+        store.setParticle(survivor, store.isParticle(survivor) && store.isParticle(victim));
+
+        absorbed[victim] = true;
+        absorbedList[absorbedCount++] = victim;
+        return victim;
+    }
+
+    /**
+     * Posa la graella al dia: la reconstrueix si ha canviat el conjunt de cossos
+     * i, si no, noms mou de cella els cossos que l'han canviada.
+     */
+    private void updateGrid(BodyStore store) {
+        if (gridStore != store || gridVersion != store.getStructureVersion() || gridScale != metersPerPixel) {
+            rebuildGrid(store);
+            return;
+        }
+        double[] x = store.getXs(), y = store.getYs();
+        for (int i = 0; i < store.size(); i++) {
+            if (large[i]) continue;
+            long key = cellKey(cellCoordinate(x[i]), cellCoordinate(y[i]));
+            if (key != cellOf[i]) {
+                unlink(i);
+                link(i, key);
+            }
+        }
+    }
+
+    /**
+     * Reconstrueix la graella sencera. La mida de cella s el doble del dimetre mitj de collisi,
+     * i els cossos amb un radi de ms de mitja cella es tracten a part.
+     */
+    private void rebuildGrid(BodyStore store) {
+        int n = store.size();
+        if (next.length < n) {
+            next = new int[n];
+            prev = new int[n];
+            cellOf = new long[n];
+            large = new boolean[n];
+            largeBodies = new int[n];
+        }
+
+        double scale = metersPerPixel;
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += store.getRadius(i);
+        cellSize = Math.max(4 * sum / n * scale, 1.0);
+
+        int buckets = Integer.highestOneBit(Math.max(2 * n - 1, 1)) << 1;
+        if (bucketHead.length != buckets) bucketHead = new int[buckets];
+        Arrays.fill(bucketHead, NONE);
+        bucketMask = buckets - 1;
+
+        double[] x = store.getXs(), y = store.getYs();
+        largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            large[i] = store.getRadius(i) * scale > cellSize / 2;
+            if (large[i]) {
+                largeBodies[largeCount++] = i;
+                continue;
+            }
+            link(i, cellKey(cellCoordinate(x[i]), cellCoordinate(y[i])));
+        }
+
+        gridStore = store;
+        gridVersion = store.getStructureVersion();
+        gridScale = scale;
+    }
+
+    private void link(int i, long key) {
+        int b = bucket(key);
+        cellOf[i] = key;
+        prev[i] = NONE;
+        next[i] = bucketHead[b];
+        if (next[i] != NONE) prev[next[i]] = i;
+        bucketHead[b] = i;
+    }
+
+    private void unlink(int i) {
+        if (prev[i] != NONE) next[prev[i]] = next[i];
+        else bucketHead[bucket(cellOf[i])] = next[i];
+        if (next[i] != NONE) prev[next[i]] = prev[i];
+    }
+
+    private long cellCoordinate(double position) {
+        return (long) Math.floor(position / cellSize);
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) ^ (cy & 0xffffffffL);
+    }
+
+    private int bucket(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & bucketMask;
+    }
+}
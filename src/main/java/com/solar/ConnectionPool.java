@@ -0,0 +1,382 @@
+package com.solar;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Grup de connexions JDBC compartit per tota l'aplicaci (vegeu DbManager.getConnection).
+ * Les connexions es reutilitzen en lloc d'obrir-ne una de nova a cada operaci, i cada connexi
+ * guarda les consultes preparades que ha fet servir ms recentment.
+ *
+ * El codi que les fa servir no canvia: close() retorna la connexi al grup i, en una consulta
+ * preparada obtinguda amb prepareStatement(sql), noms n'esborra els parmetres.
+ * Si totes les connexions estan ocupades, getConnection() espera fins al temps mxim indicat.
+ */
+public class ConnectionPool implements DataSource {
+    private static final long VALIDATE_AFTER_MILLIS = 30_000; // Les connexions inactives ms temps es comproven
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long timeoutMillis;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>(); // La primera s la usada ms recentment
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Crea el grup sense obrir cap connexi; s'obren a mesura que calen.
+     * @param url URL JDBC de la base de dades
+     * @param maxSize Nombre mxim de connexions obertes alhora
+     * @param statementCacheSize Consultes preparades que es guarden per connexi (0 = cap)
+     * @param timeoutMillis Temps mxim d'espera d'una connexi lliure
+     */
+    public ConnectionPool(String url, String user, String password,
+                          int maxSize, int statementCacheSize, long timeoutMillis) {
+        if (maxSize <= 0 || statementCacheSize < 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Configuraci del grup de connexions no vlida");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Obt una connexi del grup. Cal tancar-la (try-with-resources) per retornar-la.
+     * @throws SQLTimeoutException Si no queda cap connexi lliure dins del temps d'espera
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("El grup de connexions est tancat");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("No hi ha cap connexi lliure a la base de dades");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("S'ha interromput l'espera d'una connexi", e);
+        }
+        try {
+            PooledConnection pooled = take();
+            borrowed.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Tanca totes les connexions lliures. Les que estan en s es tanquen quan es retornen.
+     */
+    public void close() {
+        closed = true;
+        synchronized (idle) {
+            for (PooledConnection pooled : idle) pooled.closePhysical();
+            idle.clear();
+        }
+    }
+
+    /** Retorna el nombre mxim de connexions. */
+    public int getMaxSize() { return maxSize; }
+
+    /** Retorna quantes connexions fsiques s'han obert des de la creaci del grup. */
+    public long getOpenedCount() { return opened.get(); }
+
+    /** Retorna quantes vegades s'ha obtingut una connexi del grup. */
+    public long getBorrowCount() { return borrowed.get(); }
+
+    /** Retorna el nombre de connexions obertes que ara no fa servir ning. */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Retorna una connexi lliure vlida o n'obre una de nova.
+     */
+    private PooledConnection take() throws SQLException {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                Connection physical = DriverManager.getConnection(url, user, password);
+                opened.incrementAndGet();
+                return new PooledConnection(physical);
+            }
+            if (pooled.isUsable()) return pooled;
+            pooled.closePhysical();
+        }
+    }
+
+    /**
+     * Torna una connexi al grup desprs de deixar-la en l'estat inicial.
+     * Si no s'hi pot deixar (error, connexi tancada pel servidor) es descarta.
+     */
+    private void recycle(PooledConnection pooled) {
+        try {
+            boolean reusable = !closed && !pooled.physical.isClosed();
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.physical.clearWarnings();
+                pooled.lastUsed = System.currentTimeMillis();
+                synchronized (idle) {
+                    idle.addFirst(pooled);
+                }
+            } else {
+                pooled.closePhysical();
+            }
+        } catch (SQLException e) {
+            pooled.closePhysical();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Connexi fsica del grup amb les seves consultes preparades.
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final Map<String, PreparedStatement> statements;
+        private final Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            // Ordre d'accs: quan s'omple es tanca la consulta usada menys recentment
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= statementCacheSize) return false;
+                    if (!inUse.contains(eldest.getValue())) closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+        }
+
+        boolean isUsable() throws SQLException {
+            if (physical.isClosed()) return false;
+            return System.currentTimeMillis() - lastUsed < VALIDATE_AFTER_MILLIS
+                    || physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        }
+
+        /**
+         * Retorna la consulta preparada desada per a aquest SQL, o en prepara una de nova.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            if (statementCacheSize == 0) return physical.prepareStatement(sql);
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = physical.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else if (inUse.contains(statement)) {
+                // La mateixa consulta ja est oberta en aquest prstec: se'n fa una a part
+                return physical.prepareStatement(sql);
+            }
+            inUse.add(statement);
+            PreparedStatement cached = statement;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new CachedStatement(this, sql, cached));
+        }
+
+        void finish(String sql, PreparedStatement statement) throws SQLException {
+            inUse.remove(statement);
+            if (statements.get(sql) != statement) {
+                // S'ha tret de la memria cau mentre s'estava fent servir
+                statement.close();
+                return;
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        void closePhysical() {
+            for (PreparedStatement statement : statements.values()) closeQuietly(statement);
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // La connexi ja no es fa servir
+            }
+        }
+
+        private void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // La consulta ja no es fa servir
+            }
+        }
+    }
+
+    /**
+     * Connexi tal com la veu qui l'ha obtinguda: deixa de funcionar quan es tanca.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        recycle(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ConnectionPool.Lease[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("La connexi ja s'ha retornat al grup");
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return pooled.prepare((String) args[0]);
+            }
+            return ConnectionPool.invoke(pooled.physical, method, args);
+        }
+    }
+
+    /**
+     * Consulta preparada de la memria cau: close() la deixa a punt per al segent s.
+     */
+    private static final class CachedStatement implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final String sql;
+        private final PreparedStatement statement;
+        private boolean closed;
+
+        CachedStatement(PooledConnection pooled, String sql, PreparedStatement statement) {
+            this.pooled = pooled;
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        pooled.finish(sql, statement);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("La consulta preparada ja s'ha tancat");
+            }
+            return ConnectionPool.invoke(statement, method, args);
+        }
+    }
+
+    // ================================================
+    // Resta de la interfcie DataSource
+    // ================================================
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Les credencials es configuren en crear el grup");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() { return DriverManager.getLoginTimeout(); }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("No s un " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) { return iface.isInstance(this); }
+}
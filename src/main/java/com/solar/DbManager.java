@@ -1,38 +1,110 @@
 package com.solar;
 
 import com.solar.model.CelestialBody;
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Classe per gestionar la connexi i operacions amb la base de dades del sistema solar.
  * Proporciona mtodes per carregar i desar l'estat dels cossos celestes.
+ * Les connexions s'obtenen del DataSource configurat a l'inici de l'aplicaci
+ * (vegeu SimulationContextListener), normalment un ConnectionPool.
+ * Les lectures de cossos es fan sobre una cpia en memria de la taula (BodyCatalog), que
+ * totes les escriptures d'aquesta classe invaliden.
  */
 public class DbManager {
-    // Configuraci de connexi a la base de dades
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/solar_system";
-    private static final String DB_USER = "your_username";
-    private static final String DB_PASSWORD = "your_password";
-
-    // Bloc d'inicialitzaci esttic per carregar el controlador JDBC
-    static {
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("No s'ha trobat el controlador JDBC de MySQL", e);
+    private static volatile DataSource dataSource;
+    private static volatile BodyCatalog catalog = new BodyCatalog(0);
+    private static final int SAVE_BATCH_SIZE = 500;      // Actualitzacions per lot en desar l'estat
+    private static final int IMPORT_BATCH_SIZE = 5000;   // Insercions per lot en importar cossos
+    private static final String INSERT_BODY =
+        "INSERT INTO celestial_bodies (name, mass, semi_major_axis, eccentricity, radius, color, x, y, vx, vy, is_particle) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, 0, 0, 0, ?)";
+
+    /**
+     * Defineix d'on s'obtenen les connexions a la base de dades.
+     */
+    public static void setDataSource(DataSource dataSource) {
+        DbManager.dataSource = dataSource;
+    }
+
+    /**
+     * Obt una connexi a la base de dades. Cal tancar-la per retornar-la al grup.
+     * @throws SQLException Si la base de dades no s'ha configurat o no hi ha connexi
+     */
+    public static Connection getConnection() throws SQLException {
+        DataSource source = dataSource;
+        if (source == null) {
+            throw new SQLException("La base de dades no s'ha configurat");
         }
+        return source.getConnection();
+    }
+
+    /**
+     * Defineix l'antiguitat mxima de la cpia en memria de la taula de cossos.
+     * @param maxAgeMillis Millisegons (0 = noms es renova quan l'aplicaci hi escriu)
+     */
+    public static void setCatalogMaxAge(long maxAgeMillis) {
+        catalog = new BodyCatalog(maxAgeMillis);
     }
 
+    /**
+     * Retorna la versi de la cpia en memria de la taula de cossos; canvia amb cada escriptura.
+     */
+    public static long getCatalogVersion() { return catalog.getVersion(); }
+
     /**
      * Carrega tots els cossos celestes de la base de dades.
-     * @return Llista de cossos celestes amb les seves propietats
+     * Es serveixen de la cpia en memria (vegeu BodyCatalog) si s vlida.
+     * @return Llista de cossos celestes amb les seves propietats (cpies que es poden modificar)
      * @throws SQLException Si hi ha un error en accedir a la base de dades
      */
     public static List<CelestialBody> loadInitialState() throws SQLException {
+        List<CelestialBody> catalogBodies = catalog.get(DbManager::queryAllBodies);
+        List<CelestialBody> bodies = new ArrayList<>(catalogBodies.size());
+        for (CelestialBody body : catalogBodies) {
+            bodies.add(body.detachedCopy());
+        }
+        return bodies;
+    }
+
+    /**
+     * Carrega noms els cossos celestes especificats, en l'ordre de la taula.
+     * Com a MySQL (collation utf8mb4_general_ci), els noms no distingeixen majscules.
+     * @param names Llista de noms dels cossos a carregar
+     * @return Llista de cossos celestes sollicitats
+     * @throws SQLException Si hi ha un error en accedir a la base de dades
+     */
+    public static List<CelestialBody> loadSelectedBodies(List<String> names) throws SQLException {
+        List<CelestialBody> bodies = new ArrayList<>();
+        
+        if (names.isEmpty()) return bodies;
+
+        Set<String> selected = new HashSet<>();
+        for (String name : names) {
+            selected.add(name.trim().toLowerCase(Locale.ROOT));
+        }
+        for (CelestialBody body : catalog.get(DbManager::queryAllBodies)) {
+            if (selected.contains(body.getName().toLowerCase(Locale.ROOT))) {
+                bodies.add(body.detachedCopy());
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * Llegeix tota la taula de cossos (quan la cpia en memria no s vlida).
+     */
+    private static List<CelestialBody> queryAllBodies() throws SQLException {
         List<CelestialBody> bodies = new ArrayList<>();
 
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+        try (Connection conn = getConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery("SELECT * FROM celestial_bodies")) {
 
@@ -49,6 +121,7 @@ public class DbManager {
                 );
                 body.setSemiMajorAxis(rs.getDouble("semi_major_axis"));
                 body.setEccentricity(rs.getDouble("eccentricity"));
+                body.setParticle(rs.getBoolean("is_particle"));
                 bodies.add(body);
             }
         }
@@ -56,48 +129,109 @@ public class DbManager {
     }
 
     /**
-     * Carrega noms els cossos celestes especificats.
-     * @param names Llista de noms dels cossos a carregar
-     * @return Llista de cossos celestes sollicitats
+     * Insereix un cos nou a la base de dades, amb velocitat 0 a la posici (x, 0).
      * @throws SQLException Si hi ha un error en accedir a la base de dades
      */
-    public static List<CelestialBody> loadSelectedBodies(List<String> names) throws SQLException {
-        List<CelestialBody> bodies = new ArrayList<>();
-        
-        if (names.isEmpty()) return bodies;
+    public static void insertBody(CelestialBody body) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(INSERT_BODY)) {
 
-        // Crea els placeholders per a la consulta preparada
-        String placeholders = String.join(",", names.stream().map(x -> "?").toArray(String[]::new));
+            bindInsert(ps, body);
+            ps.executeUpdate();
+        } finally {
+            catalog.invalidate();
+        }
+    }
 
-        String query = "SELECT * FROM celestial_bodies WHERE name IN (" + placeholders + ")";
+    /**
+     * Insereix molts cossos, com insertBody, en una sola transacci i en lots de IMPORT_BATCH_SIZE.
+     * Els cossos es consumeixen a mesura que s'insereixen, de manera que es poden llegir
+     * directament d'un fitxer sense tenir-los tots en memria (vegeu BodyImporter).
+     * @return Nombre de cossos inserits
+     * @throws SQLException Si hi ha un error en accedir a la base de dades (no s'insereix res)
+     */
+    public static long insertBodies(Iterator<CelestialBody> bodies) throws SQLException {
+        long count = 0;
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(INSERT_BODY)) {
+            conn.setAutoCommit(false);
 
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             PreparedStatement ps = conn.prepareStatement(query)) {
-            
-            // Estableix els parmetres de la consulta
-            for (int i = 0; i < names.size(); i++) {
-                ps.setString(i + 1, names.get(i));
+            while (bodies.hasNext()) {
+                bindInsert(ps, bodies.next());
+                ps.addBatch();
+                if (++count % IMPORT_BATCH_SIZE == 0) ps.executeBatch();
             }
+            ps.executeBatch();
+            conn.commit();
+        } finally {
+            catalog.invalidate();
+        }
+        return count;
+    }
 
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    CelestialBody body = new CelestialBody(
-                        rs.getString("name"),
-                        rs.getDouble("mass"),
-                        rs.getDouble("x"),
-                        rs.getDouble("y"),
-                        rs.getDouble("vx"),
-                        rs.getDouble("vy"),
-                        rs.getInt("radius"),
-                        rs.getString("color")
-                    );
-                    body.setSemiMajorAxis(rs.getDouble("semi_major_axis"));
-                    body.setEccentricity(rs.getDouble("eccentricity"));
-                    bodies.add(body);
-                }
-            }
+    private static void bindInsert(PreparedStatement ps, CelestialBody body) throws SQLException {
+        ps.setString(1, body.getName());
+        ps.setDouble(2, body.getMass());
+        ps.setDouble(3, body.getSemiMajorAxis());
+        ps.setDouble(4, body.getEccentricity());
+        ps.setInt(5, body.getRadius());
+        ps.setString(6, body.getColor());
+        ps.setDouble(7, body.getX()); // Posici inicial al periheli
+        ps.setBoolean(8, body.isParticle());
+    }
+
+    /**
+     * Actualitza la massa, els elements orbitals, el radi, el color i el tipus dels cossos amb
+     * el nom indicat. Si canvien els elements orbitals, la posici inicial torna al periheli
+     * (com en inserir-lo); si no, la posici i la velocitat desades es conserven.
+     * @return Nombre de cossos actualitzats
+     * @throws SQLException Si hi ha un error en accedir a la base de dades
+     */
+    public static int updateBody(CelestialBody body) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement position = conn.prepareStatement(
+                 "UPDATE celestial_bodies SET x=?, y=0, vx=0, vy=0 " +
+                 "WHERE name=? AND (semi_major_axis<>? OR eccentricity<>?)");
+             PreparedStatement ps = conn.prepareStatement(
+                 "UPDATE celestial_bodies SET mass=?, semi_major_axis=?, eccentricity=?, radius=?, color=?, is_particle=? " +
+                 "WHERE name=?")) {
+            conn.setAutoCommit(false);
+
+            position.setDouble(1, body.getSemiMajorAxis() * (1 - body.getEccentricity()));
+            position.setString(2, body.getName());
+            position.setDouble(3, body.getSemiMajorAxis());
+            position.setDouble(4, body.getEccentricity());
+            position.executeUpdate();
+
+            ps.setDouble(1, body.getMass());
+            ps.setDouble(2, body.getSemiMajorAxis());
+            ps.setDouble(3, body.getEccentricity());
+            ps.setInt(4, body.getRadius());
+            ps.setString(5, body.getColor());
+            ps.setBoolean(6, body.isParticle());
+            ps.setString(7, body.getName());
+            int updated = ps.executeUpdate();
+            conn.commit();
+            return updated;
+        } finally {
+            catalog.invalidate();
+        }
+    }
+
+    /**
+     * Elimina de la base de dades els cossos amb el nom indicat.
+     * @throws SQLException Si hi ha un error en accedir a la base de dades
+     */
+    public static void deleteBody(String name) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                 "DELETE FROM celestial_bodies WHERE name = ?")) {
+
+            ps.setString(1, name);
+            ps.executeUpdate();
+        } finally {
+            catalog.invalidate();
         }
-        return bodies;
     }
 
     /**
@@ -106,20 +240,112 @@ public class DbManager {
      * @throws SQLException Si hi ha un error en accedir a la base de dades
      */
     public static void saveState(List<CelestialBody> bodies) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+        int n = bodies.size();
+        String[] names = new String[n];
+        double[] x = new double[n], y = new double[n], vx = new double[n], vy = new double[n];
+        for (int i = 0; i < n; i++) {
+            CelestialBody body = bodies.get(i);
+            names[i] = body.getName();
+            x[i] = body.getX();
+            y[i] = body.getY();
+            vx[i] = body.getVx();
+            vy[i] = body.getVy();
+        }
+        savePositions(names, x, y, vx, vy, n);
+    }
+
+    /**
+     * Desa la posici i la velocitat dels n primers cossos indicats, en una sola transacci.
+     * Les actualitzacions s'envien en lots de SAVE_BATCH_SIZE; amb MySQL, l'opci
+     * rewriteBatchedStatements de la URL les agrupa en poques peticions al servidor.
+     * @throws SQLException Si hi ha un error en accedir a la base de dades (no es desa res)
+     */
+    public static void savePositions(String[] names, double[] x, double[] y,
+                                     double[] vx, double[] vy, int n) throws SQLException {
+        try (Connection conn = getConnection();
              PreparedStatement ps = conn.prepareStatement(
                  "UPDATE celestial_bodies SET x=?, y=?, vx=?, vy=? WHERE name=?")) {
+            conn.setAutoCommit(false);
 
             // Afegeix cada cos celeste com a part d'un batch
-            for (CelestialBody body : bodies) {
-                ps.setDouble(1, body.getX());
-                ps.setDouble(2, body.getY());
-                ps.setDouble(3, body.getVx());
-                ps.setDouble(4, body.getVy());
-                ps.setString(5, body.getName());
+            for (int i = 0; i < n; i++) {
+                ps.setDouble(1, x[i]);
+                ps.setDouble(2, y[i]);
+                ps.setDouble(3, vx[i]);
+                ps.setDouble(4, vy[i]);
+                ps.setString(5, names[i]);
                 ps.addBatch();
+                if ((i + 1) % SAVE_BATCH_SIZE == 0) ps.executeBatch();
             }
             ps.executeBatch();
+            conn.commit();
+        } finally {
+            catalog.invalidate();
+        }
+    }
+
+    /**
+     * Substitueix tots els cossos de la base de dades pels planetes del sistema solar per defecte.
+     * @throws SQLException Si hi ha un error en accedir a la base de dades
+     */
+    public static void restoreDefaultBodies() throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+
+            // Esborra tots els registres existents
+            stmt.executeUpdate("DELETE FROM celestial_bodies");
+
+            // Inserta els planetes del sistema solar per defecte
+            stmt.executeUpdate(
+                "INSERT INTO celestial_bodies (name, mass, semi_major_axis, eccentricity, radius, color, x, y, vx, vy) VALUES " +
+                "('Sun', 1.989e30, 0, 0, 20, '#FFFF00', 0, 0, 0, 0)," +
+                "('Mercury', 3.3011e23, 5.791e10, 0.2056, 5, '#A9A9A9', 5.791e10 * (1-0.2056), 0, 0, 0)," +
+                "('Venus', 4.8675e24, 1.0821e11, 0.0067, 8, '#FFA500', 1.0821e11 * (1-0.0067), 0, 0, 0)," +
+                "('Earth', 5.972e24, 1.496e11, 0.0167, 8, '#1E90FF', 1.496e11 * (1-0.0167), 0, 0, 0)," +
+                "('Mars', 6.417e23, 2.2794e11, 0.0935, 6, '#FF4500', 2.2794e11 * (1-0.0935), 0, 0, 0)," +
+                "('Jupiter', 1.899e27, 7.7857e11, 0.0489, 15, '#DAA520', 7.7857e11 * (1-0.0489), 0, 0, 0)," +
+                "('Saturn', 5.685e26, 1.4335e12, 0.0565, 12, '#F0E68C', 1.4335e12 * (1-0.0565), 0, 0, 0)," +
+                "('Uranus', 8.682e25, 2.8725e12, 0.0457, 10, '#AFEEEE', 2.8725e12 * (1-0.0457), 0, 0, 0)," +
+                "('Neptune', 1.024e26, 4.4951e12, 0.0113, 10, '#0000CD', 4.4951e12 * (1-0.0113), 0, 0, 0)");
+            conn.commit();
+        } finally {
+            catalog.invalidate();
+        }
+    }
+
+    /**
+     * Crea la taula de cossos a la base de dades local (perfil "embedded") i hi posa els
+     * planetes per defecte si s buida. L'estructura s la mateixa que la de MySQL.
+     * @throws SQLException Si hi ha un error en accedir a la base de dades
+     */
+    public static void createEmbeddedSchema() throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS celestial_bodies (" +
+                "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                "name VARCHAR(50) NOT NULL, " +
+                "mass DOUBLE NOT NULL, " +
+                "semi_major_axis DOUBLE NOT NULL, " +
+                "eccentricity DOUBLE NOT NULL, " +
+                "inclination DOUBLE DEFAULT 0, " +
+                "mean_anomaly DOUBLE DEFAULT 0, " +
+                "radius INT NOT NULL, " +
+                "color VARCHAR(20) NOT NULL, " +
+                "x DOUBLE DEFAULT 0 NOT NULL, " +
+                "y DOUBLE DEFAULT 0 NOT NULL, " +
+                "vx DOUBLE DEFAULT 0 NOT NULL, " +
+                "vy DOUBLE DEFAULT 0 NOT NULL, " +
+                "is_particle BOOLEAN DEFAULT FALSE NOT NULL, " +
+                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL)");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_name ON celestial_bodies (name)");
+            stmt.executeUpdate("CREATE INDEX IF NOT EXISTS idx_mass ON celestial_bodies (mass)");
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM celestial_bodies")) {
+                rs.next();
+                if (rs.getLong(1) > 0) return;
+            }
         }
+        restoreDefaultBodies();
     }
-}
\ No newline at end of file
+}
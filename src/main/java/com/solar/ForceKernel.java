@@ -0,0 +1,18 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+
+/**
+ * Nucli opcional per al clcul exacte de les acceleracions en un sol fil.
+ * PhysicsEngine el carrega per reflexi (vegeu VectorForceKernel a src/vector/java), de manera
+ * que les fonts principals no depenen de cap mdul en incubaci.
+ */
+interface ForceKernel {
+    /** Retorna el nombre de cossos que es processen per instrucci. */
+    int lanes();
+
+    /**
+     * Calcula les acceleracions de tots els cossos i les escriu als buffers del magatzem.
+     */
+    void computeAccelerations(BodyStore store, double G, double softening);
+}
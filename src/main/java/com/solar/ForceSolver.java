@@ -0,0 +1,21 @@
+package com.solar;
+
+import java.util.Locale;
+
+/**
+ * Mtodes disponibles per calcular les forces gravitatries d'una simulaci.
+ */
+public enum ForceSolver {
+    EXACT,       // Suma directa sobre tots els parells, O(n)
+    BARNES_HUT;  // Aproximaci amb quadtree, O(n log n)
+
+    /**
+     * Interpreta el nom d'un mtode rebut per parmetre ("exact", "barnes-hut"...).
+     * @param value Nom del mtode (pot ser null)
+     * @return El mtode corresponent, o EXACT si el valor s null
+     */
+    public static ForceSolver parse(String value) {
+        if (value == null || value.isBlank()) return EXACT;
+        return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
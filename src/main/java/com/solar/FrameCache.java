@@ -0,0 +1,148 @@
+package com.solar;
+
+import javax.servlet.ServletContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Memria cau compartida de fotogrames ja serialitzats, per (simulaci, poca, tick, codificaci).
+ * Quan diversos clients miren la mateixa simulaci, cada fotograma es serialitza un sol cop
+ * per codificaci i la resta de peticions reben els mateixos bytes. Si dues peticions demanen
+ * alhora un fotograma que no hi s, la segona espera el resultat de la primera.
+ *
+ * La mida total est limitada: quan se supera, s'eliminen les entrades usades menys recentment.
+ */
+public class FrameCache {
+    /** Nom de l'atribut del ServletContext on es desa la memria cau. */
+    public static final String ATTRIBUTE = "frameCache";
+
+    private final long maxBytes;
+
+    // Ordre d'accs: el primer element s el menys usat recentment
+    private final LinkedHashMap<String, CompletableFuture<byte[]>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> sizes = new HashMap<>();   // Noms les entrades ja serialitzades
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Serialitzador d'un fotograma.
+     */
+    public interface Encoder {
+        byte[] encode() throws IOException;
+    }
+
+    /**
+     * Crea la memria cau.
+     * @param maxBytes Mida mxima de tots els fotogrames desats, en bytes
+     */
+    public FrameCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("La mida de la memria cau de fotogrames ha de ser positiva");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Retorna la memria cau desada al context de l'aplicaci.
+     */
+    public static FrameCache from(ServletContext context) {
+        FrameCache cache = (FrameCache) context.getAttribute(ATTRIBUTE);
+        if (cache == null) {
+            throw new IllegalStateException("La memria cau de fotogrames no s'ha inicialitzat.");
+        }
+        return cache;
+    }
+
+    /**
+     * Construeix la clau (i l'ETag) d'un fotograma serialitzat.
+     * @param simulationId Identificador de la simulaci (SimulationState.getInstanceId)
+     * @param epoch poca de l'estructura del fotograma (canvia en reiniciar o recarregar sense avanar el tick)
+     * @param tick Nmero de pas del fotograma
+     * @param encoding Nom curt de la codificaci
+     */
+    public static String key(long simulationId, long epoch, long tick, String encoding) {
+        return simulationId + "-" + epoch + "-" + tick + "-" + encoding;
+    }
+
+    /**
+     * Retorna els bytes desats per a la clau, o els serialitza i els desa si no hi sn.
+     * Els bytes retornats no s'han de modificar.
+     */
+    public byte[] get(String key, Encoder encoder) throws IOException {
+        CompletableFuture<byte[]> future;
+        boolean owner = false;
+        synchronized (this) {
+            future = entries.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                entries.put(key, future);
+                owner = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+
+        if (owner) {
+            // La serialitzaci es fa fora del bloqueig
+            byte[] encoded;
+            try {
+                encoded = encoder.encode();
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                synchronized (this) {
+                    entries.remove(key, future);
+                }
+                throw e;
+            }
+            future.complete(encoded);
+            store(key, future, encoded.length);
+            return encoded;
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw new IOException(cause.getMessage(), cause);
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+
+    /** Retorna quantes peticions s'han servit des de la memria cau. */
+    public synchronized long getHits() { return hits; }
+
+    /** Retorna quantes peticions han hagut de serialitzar el fotograma. */
+    public synchronized long getMisses() { return misses; }
+
+    /** Retorna la mida actual de tots els fotogrames desats, en bytes. */
+    public synchronized long getBytes() { return bytes; }
+
+    /**
+     * Compta la mida d'una entrada acabada de serialitzar i elimina les menys usades si cal.
+     */
+    private synchronized void store(String key, CompletableFuture<byte[]> future, int size) {
+        // Si s'ha eliminat mentre es serialitzava, no es torna a afegir
+        if (entries.get(key) != future) return;
+        sizes.put(key, size);
+        bytes += size;
+
+        Iterator<Map.Entry<String, CompletableFuture<byte[]>>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, CompletableFuture<byte[]>> entry = it.next();
+            if (entry.getKey().equals(key)) continue;
+            Integer evicted = sizes.remove(entry.getKey());
+            if (evicted == null) continue;  // Encara s'est serialitzant
+            bytes -= evicted;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.solar;
+
+import com.google.gson.Gson;
+import com.solar.model.SimulationFrame;
+import com.solar.model.SimulationState;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Difusi de fotogrames per Server-Sent Events a tots els clients connectats.
+ * Cada client rep primer un esdeveniment "metadata" amb les dades que no canvien (nom, color, radi)
+ * i desprs un esdeveniment "frame" per pas amb noms les posicions. Les metadades es tornen a
+ * enviar quan canvia el conjunt de cossos (reinici, fusions, nova simulaci).
+ *
+ * L'escriptura s no bloquejant: si un client no ha buidat encara el fotograma anterior,
+ * el nou es descarta per a aquest client en lloc d'acumular-se o d'endarrerir els altres.
+ */
+public class FrameStreamHub {
+    /** Nom de l'atribut del ServletContext on es desa el difusor. */
+    public static final String ATTRIBUTE = "frameStreamHub";
+
+    private final SimulationRegistry registry;
+    private final int frameRate;
+    private final ScheduledExecutorService scheduler;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final Gson gson = new Gson();
+
+    /**
+     * Crea el difusor.
+     * @param registry Registre d'on s'obt la simulaci de cada client
+     * @param frameRate Fotogrames per segon que s'envien (normalment la freqncia de simulaci)
+     */
+    public FrameStreamHub(SimulationRegistry registry, int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("La freqncia de fotogrames ha de ser positiva");
+        }
+        this.registry = registry;
+        this.frameRate = frameRate;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "frame-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Comena a enviar fotogrames a la freqncia configurada.
+     */
+    public void start() {
+        long period = TimeUnit.SECONDS.toNanos(1) / frameRate;
+        scheduler.scheduleAtFixedRate(this::broadcast, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Atura la difusi i tanca totes les connexions obertes.
+     */
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Subscription subscription : new ArrayList<>(subscriptions)) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * Registra una connexi SSE ja iniciada en mode asncron.
+     * @param async Context asncron de la petici
+     * @param clientId Identificador del client al registre de simulacions
+     */
+    public void subscribe(AsyncContext async, String clientId) throws IOException {
+        Subscription subscription = new Subscription(async, clientId);
+        async.addListener(subscription);
+        subscriptions.add(subscription);
+        subscription.out.setWriteListener(subscription);
+    }
+
+    /** Retorna el nombre de clients connectats. */
+    public int getSubscriberCount() { return subscriptions.size(); }
+
+    /** Retorna el nombre de fotogrames enviats. */
+    public long getFramesSent() { return framesSent.get(); }
+
+    /** Retorna el nombre de fotogrames descartats per clients lents. */
+    public long getFramesDropped() { return framesDropped.get(); }
+
+    /**
+     * Envia l'ltim fotograma de cada simulaci als seus clients. Un error en una connexi
+     * noms tanca aquella connexi.
+     */
+    private void broadcast() {
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.push();
+            } catch (Exception e) {
+                subscription.close();
+            }
+        }
+    }
+
+    /**
+     * Afegeix un esdeveniment "metadata" amb les dades descriptives de tots els cossos.
+     */
+    private void appendMetadata(StringBuilder event, SimulationFrame frame) {
+        List<Map<String, Object>> bodies = new ArrayList<>(frame.size());
+        for (int i = 0; i < frame.size(); i++) {
+            Map<String, Object> body = new HashMap<>();
+            body.put("name", frame.getName(i));
+            body.put("color", frame.getColor(i));
+            body.put("radius", frame.getRadius(i));
+            bodies.add(body);
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("tick", frame.getTick());
+        data.put("bodies", bodies);
+        event.append("event: metadata\ndata: ").append(gson.toJson(data)).append("\n\n");
+    }
+
+    /**
+     * Afegeix un esdeveniment "frame" amb les posicions (en float) en el mateix ordre que les metadades.
+     */
+    private static void appendFrame(StringBuilder event, SimulationFrame frame, double scale) {
+        event.append("event: frame\ndata: {\"tick\":").append(frame.getTick())
+             .append(",\"scale\":").append((float) scale)
+             .append(",\"x\":[");
+        for (int i = 0; i < frame.size(); i++) {
+            if (i > 0) event.append(',');
+            event.append((float) frame.getX(i));
+        }
+        event.append("],\"y\":[");
+        for (int i = 0; i < frame.size(); i++) {
+            if (i > 0) event.append(',');
+            event.append((float) frame.getY(i));
+        }
+        event.append("]}\n\n");
+    }
+
+    /**
+     * Connexi SSE d'un client.
+     */
+    private final class Subscription implements WriteListener, AsyncListener {
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final String clientId;
+
+        // ltim contingut enviat, per no repetir fotogrames ni metadades
+        private SimulationState lastState;
+        private long lastEpoch = -1;
+        private long lastTick = -1;
+        private boolean closed;
+
+        Subscription(AsyncContext async, String clientId) throws IOException {
+            this.async = async;
+            this.out = async.getResponse().getOutputStream();
+            this.clientId = clientId;
+        }
+
+        /**
+         * Envia l'ltim fotograma de la simulaci del client, si n'hi ha un de nou
+         * i el client ja ha rebut l'anterior.
+         */
+        synchronized void push() throws IOException {
+            if (closed) return;
+            SimulationRegistry.Entry entry = registry.get(clientId);
+            if (entry == null) {
+                close();
+                return;
+            }
+            SimulationState state = entry.getState();
+
+            if (!out.isReady()) {
+                // El client encara no ha llegit el fotograma anterior: es descarta aquest
+                framesDropped.incrementAndGet();
+                return;
+            }
+
+            StringBuilder event = new StringBuilder();
+            SimulationFrame frame = state.acquireFrame();
+            try {
+                if (state == lastState && frame.getTick() == lastTick) return;
+                if (state != lastState || frame.getStructureEpoch() != lastEpoch) {
+                    appendMetadata(event, frame);
+                    lastState = state;
+                    lastEpoch = frame.getStructureEpoch();
+                }
+                // Noms es llegeix l'escala: l'animaci del zoom la fixen les peticions del client
+                appendFrame(event, frame, entry.getViewport().getAnimatedScale());
+                lastTick = frame.getTick();
+            } finally {
+                frame.release();
+            }
+
+            out.write(event.toString().getBytes(StandardCharsets.UTF_8));
+            if (out.isReady()) out.flush();
+            framesSent.incrementAndGet();
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            subscriptions.remove(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // La connexi ja s'havia tancat
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            // Res a fer: el segent fotograma s'envia al proper pas
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            subscriptions.remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
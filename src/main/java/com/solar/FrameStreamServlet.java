@@ -0,0 +1,41 @@
+package com.solar;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import javax.servlet.annotation.*;
+import java.io.IOException;
+
+/**
+ * Servlet de streaming de fotogrames per Server-Sent Events.
+ * Substitueix el sondeig de /api/simulation: la connexi queda oberta i el FrameStreamHub
+ * hi envia les metadades un cop i desprs les posicions a cada pas de simulaci.
+ */
+@WebServlet(urlPatterns = "/api/simulation/stream", asyncSupported = true)
+public class FrameStreamServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+
+        String clientId;
+        try {
+            // Crea la simulaci del client si encara no en t
+            clientId = SimulationRegistry.from(getServletContext()).resolve(req).getId();
+        } catch (Exception e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.setContentType("application/json");
+            resp.getWriter().write("{\"error\":\"" + e.getMessage() + "\"}");
+            return;
+        }
+
+        resp.setContentType("text/event-stream");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setHeader("X-Accel-Buffering", "no");  // Evita que un proxy invers acumuli els esdeveniments
+
+        AsyncContext async = req.startAsync();
+        async.setTimeout(0);  // La connexi dura fins que el client la tanca
+        FrameStreamHub hub = (FrameStreamHub) getServletContext().getAttribute(FrameStreamHub.ATTRIBUTE);
+        hub.subscribe(async, clientId);
+    }
+}
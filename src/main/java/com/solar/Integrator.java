@@ -0,0 +1,150 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import com.solar.model.SimulationState;
+
+import java.util.Locale;
+
+/**
+ * Esquemes d'integraci temporal disponibles per al motor fsic.
+ * Tots sn simplctics: conserven l'energia a llarg termini i permeten passos de temps
+ * molt ms grans que un mtode no simplctic abans que les rbites es desfacin.
+ */
+public enum Integrator {
+
+    /** Euler semi-implcit (1r ordre): 1 clcul de forces per pas. */
+    SEMI_IMPLICIT_EULER {
+        @Override
+        public void step(SimulationState state, double dt) {
+            BodyStore store = state.getBodyStore();
+            PhysicsEngine.computeAccelerations(state);
+            kick(store, dt);
+            drift(store, dt);
+            store.setAccelerationsCurrent(false);
+        }
+    },
+
+    /** Leapfrog deriva-impuls-deriva (2n ordre): 1 clcul de forces per pas. */
+    LEAPFROG {
+        @Override
+        public void step(SimulationState state, double dt) {
+            BodyStore store = state.getBodyStore();
+            drift(store, dt / 2);
+            PhysicsEngine.computeAccelerations(state);
+            kick(store, dt);
+            drift(store, dt / 2);
+            store.setAccelerationsCurrent(false);
+        }
+    },
+
+    /**
+     * Velocity Verlet, impuls-deriva-impuls (2n ordre).
+     * Reaprofita les acceleracions del final del pas anterior, aix que tamb fa
+     * 1 clcul de forces per pas.
+     */
+    VELOCITY_VERLET {
+        @Override
+        public void step(SimulationState state, double dt) {
+            BodyStore store = state.getBodyStore();
+            if (!store.isAccelerationsCurrent()) {
+                PhysicsEngine.computeAccelerations(state);
+            }
+            kick(store, dt / 2);
+            drift(store, dt);
+            PhysicsEngine.computeAccelerations(state);
+            kick(store, dt / 2);
+            store.setAccelerationsCurrent(true);
+        }
+    },
+
+    /** Composici de Yoshida de 4t ordre sobre el leapfrog: 3 clculs de forces per pas. */
+    YOSHIDA4 {
+        @Override
+        public void step(SimulationState state, double dt) {
+            BodyStore store = state.getBodyStore();
+            drift(store, YOSHIDA_C1 * dt);
+            PhysicsEngine.computeAccelerations(state);
+            kick(store, YOSHIDA_W1 * dt);
+            drift(store, YOSHIDA_C2 * dt);
+            PhysicsEngine.computeAccelerations(state);
+            kick(store, YOSHIDA_W0 * dt);
+            drift(store, YOSHIDA_C2 * dt);
+            PhysicsEngine.computeAccelerations(state);
+            kick(store, YOSHIDA_W1 * dt);
+            drift(store, YOSHIDA_C1 * dt);
+            store.setAccelerationsCurrent(false);
+        }
+    },
+
+    /**
+     * Leapfrog impuls-deriva-impuls amb passos de temps individuals per blocs.
+     * Cada cos noms es recalcula quan li toca segons el seu nivell (vegeu BlockTimestepScheduler).
+     */
+    BLOCK_LEAPFROG {
+        @Override
+        public void step(SimulationState state, double dt) {
+            state.getBlockScheduler().step(state, dt);
+        }
+    },
+
+    /**
+     * Propagaci analtica de Kepler al voltant del Sol (vegeu KeplerPropagator).
+     * Noms els cossos pertorbats s'integren numricament.
+     */
+    KEPLER {
+        @Override
+        public void step(SimulationState state, double dt) {
+            state.getKeplerPropagator().step(state, dt);
+        }
+    };
+
+    // Coeficients de Yoshida (1990)
+    private static final double CBRT2 = Math.cbrt(2.0);
+    private static final double YOSHIDA_W1 = 1.0 / (2.0 - CBRT2);
+    private static final double YOSHIDA_W0 = -CBRT2 / (2.0 - CBRT2);
+    private static final double YOSHIDA_C1 = YOSHIDA_W1 / 2.0;
+    private static final double YOSHIDA_C2 = (YOSHIDA_W0 + YOSHIDA_W1) / 2.0;
+
+    /**
+     * Avana tots els cossos de la simulaci un pas de temps.
+     * @param state Simulaci a integrar
+     * @param dt Pas de temps en segons
+     */
+    public abstract void step(SimulationState state, double dt);
+
+    /**
+     * Interpreta el nom d'un integrador rebut per parmetre ("leapfrog", "velocity-verlet"...).
+     * @param value Nom de l'integrador (pot ser null)
+     * @return L'integrador corresponent, o LEAPFROG si el valor s null
+     */
+    public static Integrator parse(String value) {
+        if (value == null || value.isBlank()) return LEAPFROG;
+        return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    /**
+     * Actualitza les velocitats amb les acceleracions actuals (impuls).
+     */
+    private static void kick(BodyStore store, double dt) {
+        int n = store.size();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        double[] ax = store.getAxs(), ay = store.getAys();
+        for (int i = 0; i < n; i++) {
+            vx[i] += ax[i] * dt;
+            vy[i] += ay[i] * dt;
+        }
+    }
+
+    /**
+     * Actualitza les posicions amb les velocitats actuals (deriva).
+     */
+    private static void drift(BodyStore store, double dt) {
+        int n = store.size();
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        for (int i = 0; i < n; i++) {
+            x[i] += vx[i] * dt;
+            y[i] += vy[i] * dt;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import com.solar.model.SimulationState;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Propagaci analtica d'rbites keplerianes al voltant del Sol.
+ * Els elements orbitals de cada cos es calculen un cop a partir de la posici i la velocitat,
+ * i desprs la posici en qualsevol instant s'obt resolent l'equaci de Kepler,
+ * sense acumular passos: saltar a qualsevol temps costa O(n).
+ *
+ * Els cossos marcats com a pertorbats (i els que no estan lligats al Sol) s'integren
+ * numricament amb leapfrog dins del camp de tots els altres cossos.
+ */
+public class KeplerPropagator {
+    private static final double TWO_PI = 2 * Math.PI;
+    private static final int MAX_ITERATIONS = 30;
+    private static final double TOLERANCE = 1e-12;
+
+    // Elements orbitals per cos (referits al Sol)
+    private double[] semiMajorAxis = new double[0];
+    private double[] eccentricity = new double[0];
+    private double[] periapsisAngle = new double[0];   // Argument del periheli (radians)
+    private double[] meanAnomalyAtEpoch = new double[0];
+    private double[] meanMotion = new double[0];       // Radians per segon
+    private double[] direction = new double[0];        // +1 antihorari, -1 horari
+    private boolean[] analytic = new boolean[0];       // Fals si el cos s'integra numricament
+
+    private int[] perturbed = new int[0];
+    private int perturbedCount;
+    private int sun = -1;
+    private double epoch;
+
+    // Conjunt de cossos sobre el qual s'han calculat els elements
+    private BodyStore elementsStore;
+    private long elementsVersion = -1;
+    private Set<String> elementsPerturbedNames;
+
+    /**
+     * Avana la simulaci un pas: els cossos analtics se situen directament a temps + dt
+     * i els pertorbats fan un pas leapfrog (impuls-deriva-impuls).
+     */
+    public synchronized void step(SimulationState state, double dt) {
+        BodyStore store = state.getBodyStore();
+        double time = state.getSimulationTime();
+        ensureElements(state, store, time);
+
+        if (perturbedCount == 0) {
+            place(store, time + dt);
+            store.setAccelerationsCurrent(false);
+            return;
+        }
+
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        double[] ax = store.getAxs(), ay = store.getAys();
+
+        PhysicsEngine.computeAccelerations(state, perturbed, perturbedCount);
+        for (int k = 0; k < perturbedCount; k++) {
+            int i = perturbed[k];
+            vx[i] += ax[i] * dt / 2;
+            vy[i] += ay[i] * dt / 2;
+            x[i] += vx[i] * dt;
+            y[i] += vy[i] * dt;
+        }
+
+        place(store, time + dt);
+
+        PhysicsEngine.computeAccelerations(state, perturbed, perturbedCount);
+        for (int k = 0; k < perturbedCount; k++) {
+            int i = perturbed[k];
+            vx[i] += ax[i] * dt / 2;
+            vy[i] += ay[i] * dt / 2;
+        }
+        store.setAccelerationsCurrent(false);
+    }
+
+    /**
+     * Situa tots els cossos a l'instant indicat sense integrar.
+     * @throws IllegalStateException Si hi ha cossos que s'han d'integrar numricament
+     */
+    public synchronized void seek(SimulationState state, double time) {
+        BodyStore store = state.getBodyStore();
+        ensureElements(state, store, state.getSimulationTime());
+        if (perturbedCount > 0) {
+            throw new IllegalStateException(
+                "No es pot saltar en el temps amb cossos pertorbats: s'han d'integrar pas a pas");
+        }
+        place(store, time);
+        store.setAccelerationsCurrent(false);
+    }
+
+    /**
+     * Descarta els elements orbitals calculats: es tornaran a calcular al pas segent a partir de
+     * les posicions i velocitats actuals. Cal cridar-lo quan es modifiquen les dades d'un cos
+     * (massa, elements orbitals, estat) sense canviar la versi del conjunt de cossos.
+     */
+    public synchronized void invalidate() {
+        elementsStore = null;
+    }
+
+    /**
+     * Recalcula els elements orbitals si ha canviat el conjunt de cossos o la selecci de pertorbats.
+     */
+    private void ensureElements(SimulationState state, BodyStore store, double time) {
+        Set<String> perturbedNames = state.getPerturbedBodies();
+        if (elementsStore == store && elementsVersion == store.getStructureVersion()
+                && perturbedNames.equals(elementsPerturbedNames)) {
+            return;
+        }
+        computeElements(store, perturbedNames, time);
+        elementsStore = store;
+        elementsVersion = store.getStructureVersion();
+        elementsPerturbedNames = perturbedNames;
+    }
+
+    /**
+     * Calcula els elements orbitals de cada cos a partir del seu vector d'estat relatiu al Sol.
+     */
+    private void computeElements(BodyStore store, Set<String> perturbedNames, double time) {
+        int n = store.size();
+        if (semiMajorAxis.length < n) {
+            semiMajorAxis = new double[n];
+            eccentricity = new double[n];
+            periapsisAngle = new double[n];
+            meanAnomalyAtEpoch = new double[n];
+            meanMotion = new double[n];
+            direction = new double[n];
+            analytic = new boolean[n];
+            perturbed = new int[n];
+        }
+        Arrays.fill(analytic, false);
+        perturbedCount = 0;
+        epoch = time;
+
+        sun = store.indexOf("Sun");
+        if (sun < 0) {
+            throw new IllegalArgumentException("El sistema solar ha de contenir un Sol");
+        }
+
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys(), mass = store.getMasses();
+
+        // El Sol queda fix com a focus de totes les rbites
+        vx[sun] = 0;
+        vy[sun] = 0;
+        analytic[sun] = true;
+
+        for (int i = 0; i < n; i++) {
+            if (i == sun) continue;
+
+            double mu = PhysicsEngine.G * (mass[sun] + mass[i]);
+            double rx = x[i] - x[sun], ry = y[i] - y[sun];
+            double ux = vx[i], uy = vy[i];
+            double r = Math.hypot(rx, ry);
+            double v2 = ux * ux + uy * uy;
+            double energy = v2 / 2 - mu / r;
+
+            if (perturbedNames.contains(store.getName(i)) || energy >= 0 || r == 0) {
+                // Pertorbat o no lligat al Sol: s'integra numricament
+                perturbed[perturbedCount++] = i;
+                continue;
+            }
+
+            double a = -mu / (2 * energy);
+            double rDotV = rx * ux + ry * uy;
+            double ex = ((v2 - mu / r) * rx - rDotV * ux) / mu;
+            double ey = ((v2 - mu / r) * ry - rDotV * uy) / mu;
+            double e = Math.min(Math.hypot(ex, ey), 1 - 1e-12);
+            double omega = Math.atan2(ey, ex);
+            double sign = (rx * uy - ry * ux) >= 0 ? 1 : -1;
+
+            // Anomalia vertadera en el pla de l'rbita
+            double px = rx * Math.cos(omega) + ry * Math.sin(omega);
+            double py = sign * (-rx * Math.sin(omega) + ry * Math.cos(omega));
+            double nu = Math.atan2(py, px);
+            double E = Math.atan2(Math.sqrt(1 - e * e) * Math.sin(nu), e + Math.cos(nu));
+
+            semiMajorAxis[i] = a;
+            eccentricity[i] = e;
+            periapsisAngle[i] = omega;
+            meanAnomalyAtEpoch[i] = E - e * Math.sin(E);
+            meanMotion[i] = Math.sqrt(mu / (a * a * a));
+            direction[i] = sign;
+            analytic[i] = true;
+        }
+    }
+
+    /**
+     * Situa els cossos analtics a l'instant indicat resolent l'equaci de Kepler.
+     */
+    private void place(BodyStore store, double time) {
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        double sunX = x[sun], sunY = y[sun];
+
+        for (int i = 0; i < store.size(); i++) {
+            if (!analytic[i] || i == sun) continue;
+
+            double a = semiMajorAxis[i], e = eccentricity[i], n = meanMotion[i];
+            double M = (meanAnomalyAtEpoch[i] + n * (time - epoch)) % TWO_PI;
+            double E = solveKepler(M, e);
+
+            double cosE = Math.cos(E), sinE = Math.sin(E);
+            double b = a * Math.sqrt(1 - e * e);
+            double denom = 1 - e * cosE;
+
+            // Posici i velocitat en el pla de l'rbita (periheli sobre l'eix x')
+            double px = a * (cosE - e);
+            double py = b * sinE;
+            double pvx = -a * n * sinE / denom;
+            double pvy = b * n * cosE / denom;
+
+            // Rotaci a coordenades del sistema
+            double cw = Math.cos(periapsisAngle[i]), sw = Math.sin(periapsisAngle[i]);
+            double s = direction[i];
+            x[i] = sunX + px * cw - s * py * sw;
+            y[i] = sunY + px * sw + s * py * cw;
+            vx[i] = pvx * cw - s * pvy * sw;
+            vy[i] = pvx * sw + s * pvy * cw;
+        }
+    }
+
+    /**
+     * Resol l'equaci de Kepler M = E - e sin E pel mtode de Newton.
+     */
+    private static double solveKepler(double M, double e) {
+        double E = e < 0.8 ? M : Math.PI * Math.signum(M);
+        for (int k = 0; k < MAX_ITERATIONS; k++) {
+            double delta = (E - e * Math.sin(E) - M) / (1 - e * Math.cos(E));
+            E -= delta;
+            if (Math.abs(delta) < TOLERANCE) break;
+        }
+        return E;
+    }
+}
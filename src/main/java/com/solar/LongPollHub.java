@@ -0,0 +1,209 @@
+package com.solar;
+
+import com.solar.model.SimulationState;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Peticions de long-poll aparcades fins que es publica un fotograma nou.
+ * Les peticions esperen en mode asncron (AsyncContext), sense ocupar cap fil del contenidor.
+ * Desprs de cada pas, el SimulationTicker avisa el hub i les peticions amb un fotograma nou
+ * es responen des d'un executor propi: amb fils virtuals si la JVM en t (JDK 21), de manera
+ * que milers de clients no necessiten milers de fils de plataforma ni tan sols mentre s'escriu
+ * la resposta a un client lent.
+ */
+public class LongPollHub {
+    /** Nom de l'atribut del ServletContext on es desa el hub. */
+    public static final String ATTRIBUTE = "longPollHub";
+
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Crea el hub.
+     * @param timeoutMillis Temps mxim d'espera: passat aquest temps es respon amb l'ltim fotograma
+     * @param useVirtualThreads Si s'han de fer servir fils virtuals quan la JVM en t
+     * @param threads Fils de l'executor quan no es fan servir fils virtuals
+     */
+    public LongPollHub(long timeoutMillis, boolean useVirtualThreads, int threads) {
+        if (timeoutMillis <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("El temps d'espera i el nombre de fils han de ser positius");
+        }
+        this.timeoutMillis = timeoutMillis;
+        ExecutorService virtual = useVirtualThreads ? createVirtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : createPlatformThreadExecutor(threads);
+    }
+
+    /**
+     * Retorna el hub desat al context de l'aplicaci.
+     */
+    public static LongPollHub from(ServletContext context) {
+        LongPollHub hub = (LongPollHub) context.getAttribute(ATTRIBUTE);
+        if (hub == null) {
+            throw new IllegalStateException("El long-poll no s'ha inicialitzat.");
+        }
+        return hub;
+    }
+
+    /**
+     * Aparca una petici ja iniciada en mode asncron fins que la simulaci passi del tick indicat
+     * o el client passi a tenir una altra simulaci.
+     * @param async Context asncron de la petici
+     * @param entry Simulaci del client al registre
+     * @param state Simulaci que mira el client
+     * @param sinceTick ltim tick que t el client
+     * @param respond Escriu la resposta; el hub completa el context asncron desprs
+     */
+    public void park(AsyncContext async, SimulationRegistry.Entry entry, SimulationState state,
+            long sinceTick, Runnable respond) {
+        Waiter waiter = new Waiter(async, entry, state, sinceTick, respond);
+        // Marge perqu el contenidor no tanqui la petici abans que el hub la respongui
+        async.setTimeout(timeoutMillis + 5000);
+        async.addListener(waiter);
+        waiters.add(waiter);
+    }
+
+    /**
+     * Respon les peticions que ja tenen un fotograma nou o que han esperat el temps mxim.
+     * El crida el fil de simulaci desprs de cada pas.
+     */
+    public void onTick() {
+        long now = System.currentTimeMillis();
+        for (Waiter waiter : waiters) {
+            if (waiter.state.getTick() > waiter.sinceTick || now >= waiter.deadline
+                    || waiter.entry.peekState() != waiter.state) {
+                dispatch(waiter);
+            }
+        }
+    }
+
+    /**
+     * Respon totes les peticions pendents i atura l'executor.
+     */
+    public void stop() {
+        for (Waiter waiter : new ArrayList<>(waiters)) {
+            dispatch(waiter);
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Retorna el nombre de peticions aparcades. */
+    public int getWaitingCount() { return waiters.size(); }
+
+    /** Indica si les respostes s'escriuen des de fils virtuals. */
+    public boolean isUsingVirtualThreads() { return virtualThreads; }
+
+    /**
+     * Treu la petici de la llista (noms un cop) i n'escriu la resposta a l'executor.
+     */
+    private void dispatch(Waiter waiter) {
+        if (!waiters.remove(waiter)) return;
+        try {
+            executor.execute(waiter::respond);
+        } catch (RuntimeException e) {
+            // Executor aturat: es tanca la petici sense resposta
+            waiter.complete();
+        }
+    }
+
+    /**
+     * Crea un executor amb un fil virtual per tasca si la JVM ho permet (JDK 21 o posterior).
+     * Es crida per reflexi perqu el codi tamb compili i funcioni en versions anteriors.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Crea un executor amb un nombre fix de fils de plataforma, per quan no hi ha fils virtuals.
+     */
+    private static ExecutorService createPlatformThreadExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "long-poll-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Petici aparcada.
+     */
+    private final class Waiter implements AsyncListener {
+        private final AsyncContext async;
+        private final SimulationRegistry.Entry entry;
+        private final SimulationState state;
+        private final long sinceTick;
+        private final Runnable respond;
+        private final long deadline;
+
+        Waiter(AsyncContext async, SimulationRegistry.Entry entry, SimulationState state,
+                long sinceTick, Runnable respond) {
+            this.async = async;
+            this.entry = entry;
+            this.state = state;
+            this.sinceTick = sinceTick;
+            this.respond = respond;
+            this.deadline = System.currentTimeMillis() + timeoutMillis;
+        }
+
+        void respond() {
+            try {
+                respond.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                complete();
+            }
+        }
+
+        void complete() {
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // La connexi ja s'havia tancat
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            waiters.remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (waiters.remove(this)) complete();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (waiters.remove(this)) complete();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
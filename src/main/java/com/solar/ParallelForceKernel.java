@@ -0,0 +1,252 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Clcul parallel de les acceleracions gravitatries exactes (suma directa de parells).
+ * Com que cada parell (i, j) escriu a i i a j (3a llei de Newton), cada fil acumula en
+ * un buffer propi i al final es fa una reducci per ndexs, de manera que no hi ha
+ * escriptures concurrents sobre la mateixa posici.
+ */
+public class ParallelForceKernel {
+    private static final int MIN_BODIES = 512; // Per sota d'aquest valor la coordinaci no compensa
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    // Buffers d'acumulaci per fil de treball. El nucli en conserva un sol joc, que es
+    // reutilitza entre crides; si dues simulacions el fan servir alhora, la segona en crea un de temporal
+    private final AtomicReference<Accumulators> spare = new AtomicReference<>();
+
+    /**
+     * Crea el nucli amb el nombre de fils indicat.
+     * @param threads Nombre de fils de treball (mnim 1)
+     */
+    public ParallelForceKernel(int threads) {
+        this.parallelism = Math.max(1, threads);
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /** Retorna el nombre de fils de treball. */
+    public int getParallelism() { return parallelism; }
+
+    /**
+     * Indica si val la pena fer servir el clcul parallel per a aquest nombre de cossos.
+     */
+    public boolean isWorthwhile(int bodyCount) {
+        return parallelism > 1 && bodyCount >= MIN_BODIES;
+    }
+
+    /**
+     * Calcula les acceleracions de tots els cossos i les escriu als buffers del magatzem.
+     */
+    public void computeAccelerations(BodyStore store, double G, double softening) {
+        int n = store.size();
+        Accumulators acc = spare.getAndSet(null);
+        if (acc == null || acc.x[0].length < n) acc = new Accumulators(parallelism, n);
+        try {
+            computeAccelerations(store, G, softening, acc.x, acc.y);
+        } finally {
+            spare.set(acc);
+        }
+    }
+
+    private void computeAccelerations(BodyStore store, double G, double softening,
+                                      double[][] accX, double[][] accY) {
+        int n = store.size();
+
+        // 1. Reparteix les files de manera que cada fil processi un nombre similar de parells
+        List<RecursiveAction> tasks = new ArrayList<>(parallelism);
+        long totalPairs = (long) n * (n - 1) / 2;
+        int row = 0;
+        for (int t = 0; t < parallelism; t++) {
+            long target = totalPairs * (t + 1) / parallelism;
+            int endRow = row;
+            long pairsBefore = pairsBeforeRow(row, n);
+            while (endRow < n && pairsBefore < target) {
+                pairsBefore += n - 1 - endRow;
+                endRow++;
+            }
+            if (t == parallelism - 1) endRow = n;
+            tasks.add(new PairBlock(store, row, endRow, accX[t], accY[t], G, softening));
+            row = endRow;
+        }
+        pool.invoke(new RunAll(tasks));
+
+        // 2. Redueix els acumuladors de tots els fils als buffers del magatzem
+        List<RecursiveAction> reductions = new ArrayList<>(parallelism);
+        for (int t = 0; t < parallelism; t++) {
+            int from = (int) ((long) n * t / parallelism);
+            int to = (int) ((long) n * (t + 1) / parallelism);
+            reductions.add(new Reduction(store, from, to, accX, accY));
+        }
+        pool.invoke(new RunAll(reductions));
+    }
+
+    /**
+     * Calcula les acceleracions de les partcules de prova del magatzem, degudes noms als cossos massius.
+     * Cada partcula s independent, aix que n'hi ha prou de repartir-les en blocs contigus
+     * sense buffers d'acumulaci.
+     */
+    public void computeParticleAccelerations(BodyStore store, double G, double softening) {
+        int[] particles = store.getParticleIndices();
+        int count = store.getParticleCount();
+        // Els ndexs es calculen aqu perqu els fils de treball noms en facin lectures
+        store.getMassiveIndices();
+
+        List<RecursiveAction> tasks = new ArrayList<>(parallelism);
+        for (int t = 0; t < parallelism; t++) {
+            int from = (int) ((long) count * t / parallelism);
+            int to = (int) ((long) count * (t + 1) / parallelism);
+            tasks.add(new ParticleBlock(store, particles, from, to, G, softening));
+        }
+        pool.invoke(new RunAll(tasks));
+    }
+
+    /**
+     * Atura el grup de fils.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static long pairsBeforeRow(int row, int n) {
+        // Suma de (n - 1 - i) per i < row
+        return (long) row * (n - 1) - (long) row * (row - 1) / 2;
+    }
+
+    /**
+     * Un joc de buffers d'acumulaci, un per fil de treball.
+     */
+    private static final class Accumulators {
+        final double[][] x, y;
+
+        Accumulators(int parallelism, int n) {
+            x = new double[parallelism][Math.max(n, 1)];
+            y = new double[parallelism][Math.max(n, 1)];
+        }
+    }
+
+    /**
+     * Tasca que processa les files [fromRow, toRow) del triangle de parells i < j.
+     */
+    private static class PairBlock extends RecursiveAction {
+        private final BodyStore store;
+        private final int fromRow, toRow;
+        private final double[] accX, accY;
+        private final double G, softening;
+
+        PairBlock(BodyStore store, int fromRow, int toRow, double[] accX, double[] accY,
+                  double G, double softening) {
+            this.store = store;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.accX = accX;
+            this.accY = accY;
+            this.G = G;
+            this.softening = softening;
+        }
+
+        @Override
+        protected void compute() {
+            int n = store.size();
+            double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+            Arrays.fill(accX, 0, n, 0.0);
+            Arrays.fill(accY, 0, n, 0.0);
+
+            for (int i = fromRow; i < toRow; i++) {
+                double xi = x[i], yi = y[i], mi = mass[i];
+                double axi = 0, ayi = 0;
+                for (int j = i + 1; j < n; j++) {
+                    double dx = x[j] - xi;
+                    double dy = y[j] - yi;
+                    double rSquared = dx * dx + dy * dy + softening;
+                    double g = G / (rSquared * Math.sqrt(rSquared));
+                    axi += g * mass[j] * dx;
+                    ayi += g * mass[j] * dy;
+                    accX[j] -= g * mi * dx;
+                    accY[j] -= g * mi * dy;
+                }
+                accX[i] += axi;
+                accY[i] += ayi;
+            }
+        }
+    }
+
+    /**
+     * Tasca que calcula l'acceleraci de les partcules particles[from..to).
+     */
+    private static class ParticleBlock extends RecursiveAction {
+        private final BodyStore store;
+        private final int[] particles;
+        private final int from, to;
+        private final double G, softening;
+
+        ParticleBlock(BodyStore store, int[] particles, int from, int to, double G, double softening) {
+            this.store = store;
+            this.particles = particles;
+            this.from = from;
+            this.to = to;
+            this.G = G;
+            this.softening = softening;
+        }
+
+        @Override
+        protected void compute() {
+            PhysicsEngine.accumulateParticleAccelerations(store, particles, from, to, G, softening);
+        }
+    }
+
+    /**
+     * Tasca que suma els acumuladors de tots els fils per a l'interval d'ndexs [from, to).
+     */
+    private static class Reduction extends RecursiveAction {
+        private final BodyStore store;
+        private final int from, to;
+        private final double[][] accX, accY;
+
+        Reduction(BodyStore store, int from, int to, double[][] accX, double[][] accY) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+            this.accX = accX;
+            this.accY = accY;
+        }
+
+        @Override
+        protected void compute() {
+            double[] ax = store.getAxs(), ay = store.getAys();
+            for (int i = from; i < to; i++) {
+                double sumX = 0, sumY = 0;
+                for (int t = 0; t < accX.length; t++) {
+                    sumX += accX[t][i];
+                    sumY += accY[t][i];
+                }
+                ax[i] = sumX;
+                ay[i] = sumY;
+            }
+        }
+    }
+
+    /**
+     * Tasca que llana un conjunt de subtasques i espera que acabin totes.
+     */
+    private static class RunAll extends RecursiveAction {
+        private final List<RecursiveAction> tasks;
+
+        RunAll(List<RecursiveAction> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+}
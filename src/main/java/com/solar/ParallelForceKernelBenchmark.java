@@ -0,0 +1,94 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import com.solar.model.CelestialBody;
+import java.util.Random;
+
+/**
+ * Microbenchmark de l'escalabilitat del clcul exacte de forces: mesura parells per segon
+ * del bucle escalar (1 fil) i de ParallelForceKernel amb cada nombre de fils indicat,
+ * sobre el mateix conjunt de cossos aleatoris.
+ *
+ * Les xifres noms tenen sentit fins al nombre de processadors de la mquina.
+ * s: java -cp build/classes com.solar.ParallelForceKernelBenchmark [cossos] [segons] [fils,...]
+ */
+public final class ParallelForceKernelBenchmark {
+    private static final double AU = 1.496e11;
+
+    private ParallelForceKernelBenchmark() {}
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 8192;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+        String[] threadList = (args.length > 2 ? args[2] : "2,4,8,16").split(",");
+
+        BodyStore store = randomStore(n);
+        long pairs = (long) n * (n - 1) / 2;
+        System.out.printf("%d cossos, %d processadors disponibles%n", n, Runtime.getRuntime().availableProcessors());
+
+        double scalar = measure(store, seconds, null);
+        double[] scalarAx = store.getAxs().clone();
+        System.out.printf("1 fil (escalar): %.3e parells/s%n", pairs * scalar);
+
+        for (String text : threadList) {
+            int threads = Integer.parseInt(text.trim());
+            ParallelForceKernel kernel = new ParallelForceKernel(threads);
+            try {
+                double parallel = measure(store, seconds, kernel);
+                System.out.printf("%d fils: %.3e parells/s (x%.2f, eficincia %.0f%%), diferncia relativa mxima %.2e%n",
+                        threads, pairs * parallel, parallel / scalar, 100 * parallel / scalar / threads,
+                        maxRelativeDifference(scalarAx, store.getAxs(), n));
+            } finally {
+                kernel.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Executa el clcul durant el temps indicat (desprs d'un escalfament) i retorna
+     * el nombre d'avaluacions completes per segon.
+     * @param kernel Nucli parallel, o null per al bucle escalar
+     */
+    private static double measure(BodyStore store, double seconds, ParallelForceKernel kernel) {
+        long budget = (long) (seconds * 1e9);
+        for (long end = System.nanoTime() + budget / 2; System.nanoTime() < end; ) {
+            run(store, kernel);
+        }
+        int runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            run(store, kernel);
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return runs / (elapsed / 1e9);
+    }
+
+    private static void run(BodyStore store, ParallelForceKernel kernel) {
+        if (kernel != null) {
+            kernel.computeAccelerations(store, PhysicsEngine.G, PhysicsEngine.SOFTENING);
+        } else {
+            PhysicsEngine.calculateScalarAccelerations(store);
+        }
+    }
+
+    private static BodyStore randomStore(int n) {
+        Random random = new Random(42);
+        BodyStore store = new BodyStore(n);
+        for (int i = 0; i < n; i++) {
+            store.add(new CelestialBody("B" + i, 1e20 + random.nextDouble() * 1e27,
+                    (random.nextDouble() - 0.5) * 60 * AU, (random.nextDouble() - 0.5) * 60 * AU,
+                    0, 0, 1, "#ffffff"));
+        }
+        return store;
+    }
+
+    private static double maxRelativeDifference(double[] a, double[] b, int n) {
+        double max = 0;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]) / Math.max(Math.abs(a[i]), 1e-300));
+        }
+        return max;
+    }
+}
@@ -1,130 +1,369 @@
 package com.solar;
 
-import com.solar.model.CelestialBody;
-import java.util.List;
+import com.solar.model.BodyStore;
+import com.solar.model.SimulationState;
+import java.util.Arrays;
 
 /**
  * Motor de simulaci fsica per al sistema solar.
  * Gestiona les forces gravitatries i el moviment orbital dels cossos celestes.
+ * Treballa directament sobre els arrays primitius d'un BodyStore i no reserva memria a cada pas.
  */
 public class PhysicsEngine {
     // Constants fsiques
-    private static final double G = 6.67430e-11;  // Constant gravitacional 
+    static final double G = 6.67430e-11;          // Constant gravitacional 
     private static final double AU = 1.496e11;     // Unitat astronmica en metres
-    private static final double SOFTENING = 1e9;   // Factor de suavitzat per evitar divisions per zero
+    static final double SOFTENING = 1e9;           // Factor de suavitzat per evitar divisions per zero
     
     // Parmetres temporals
     private static final double BASE_TIME_STEP = 600; // Pas de temps base
 
+    // Nucli parallel per al clcul exacte (null si s'executa en un sol fil)
+    private static volatile ParallelForceKernel parallelKernel;
+
+    // Nucli SIMD opcional; null si no s'ha activat o no es pot carregar
+    private static final String VECTOR_KERNEL_CLASS = "com.solar.VectorForceKernel";
+    private static volatile ForceKernel vectorKernel;
+
     /**
-     * Actualitza les posicions i velocitats de tots els cossos celestes.
+     * Configura el nombre de fils que fa servir el clcul exacte de forces.
+     * @param threads Nombre de fils; 1 o menys desactiva el clcul parallel
      */
-    public static void update(List<CelestialBody> bodies, double timeScale) {
-        double effectiveTimeStep = BASE_TIME_STEP * timeScale;
-        
-        // 1. Calcula totes les forces gravitatries 
-        double[][] forces = calculateGravitationalForces(bodies);
-        
-        // 2. Actualitza velocitats i posicions
-        updatePositionsAndVelocities(bodies, forces, effectiveTimeStep);
+    public static synchronized void setParallelism(int threads) {
+        ParallelForceKernel previous = parallelKernel;
+        parallelKernel = threads > 1 ? new ParallelForceKernel(threads) : null;
+        if (previous != null) previous.shutdown();
+    }
+
+    /**
+     * Activa o desactiva el nucli SIMD per al clcul exacte en un sol fil.
+     * El nucli es compila a part (src/vector/java) i noms es carrega quan s'activa.
+     * @param enabled Cert per fer-lo servir si est installat i l'API Vector est disponible
+     * @return Cert si el nucli SIMD queda actiu
+     */
+    public static synchronized boolean setVectorKernelEnabled(boolean enabled) {
+        vectorKernel = enabled ? loadVectorKernel() : null;
+        return vectorKernel != null;
+    }
+
+    /** Indica si el clcul exacte en un sol fil fa servir el nucli SIMD. */
+    public static boolean isVectorKernelEnabled() { return vectorKernel != null; }
+
+    /**
+     * Allibera els fils del clcul parallel.
+     */
+    public static synchronized void shutdown() {
+        setParallelism(1);
+    }
+
+    /**
+     * Actualitza les posicions i velocitats de tots els cossos d'una simulaci,
+     * fent servir l'integrador i el mtode de clcul de forces que t configurats.
+     */
+    public static void update(SimulationState state, double timeScale) {
+        state.getIntegrator().step(state, effectiveTimeStep(timeScale));
+    }
+
+    /**
+     * Retorna el pas de temps en segons que correspon a una escala de temps.
+     */
+    public static double effectiveTimeStep(double timeScale) {
+        return BASE_TIME_STEP * timeScale;
+    }
+
+    /**
+     * Calcula les acceleracions de tots els cossos amb les posicions actuals,
+     * amb el mtode exacte o amb Barnes-Hut segons la configuraci de la simulaci.
+     * El resultat s'escriu als buffers d'acceleraci del magatzem.
+     */
+    public static void computeAccelerations(SimulationState state) {
+        BodyStore store = state.getBodyStore();
+        if (state.getForceSolver() == ForceSolver.BARNES_HUT) {
+            calculateBarnesHutAccelerations(store, state.getForceTree(), state.getTheta());
+        } else {
+            calculateGravitationalAccelerations(store);
+        }
     }
     
+    /**
+     * Calcula les acceleracions noms dels cossos indicats, amb les posicions actuals de tots.
+     * Les acceleracions de la resta de cossos no es modifiquen.
+     * @param active ndexs dels cossos a calcular
+     * @param activeCount Nombre d'ndexs vlids a l'array
+     */
+    public static void computeAccelerations(SimulationState state, int[] active, int activeCount) {
+        BodyStore store = state.getBodyStore();
+        if (state.getForceSolver() == ForceSolver.BARNES_HUT) {
+            BarnesHutTree tree = state.getForceTree();
+            tree.build(store);
+            tree.computeAccelerations(state.getTheta(), G, SOFTENING, active, activeCount,
+                    store.getAxs(), store.getAys());
+            return;
+        }
+
+        int n = store.size();
+        double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+        double[] ax = store.getAxs(), ay = store.getAys();
+        for (int k = 0; k < activeCount; k++) {
+            int i = active[k];
+            double xi = x[i], yi = y[i];
+            double axi = 0, ayi = 0;
+            for (int j = 0; j < n; j++) {
+                if (j == i || store.isParticle(j)) continue; // Les partcules no atrauen
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double rSquared = dx*dx + dy*dy + SOFTENING;
+                double g = G * mass[j] / (rSquared * Math.sqrt(rSquared));
+                axi += g * dx;
+                ayi += g * dy;
+            }
+            ax[i] = axi;
+            ay[i] = ayi;
+        }
+    }
+
     /**
      * Inicialitza rbites estables al voltant del Sol.
 
      */
-    public static void initializeOrbits(List<CelestialBody> bodies) {
-        CelestialBody sun = findSun(bodies);
+    public static void initializeOrbits(BodyStore store) {
+        int sun = findSun(store);
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        double sunMass = store.getMasses()[sun];
 
-        for (CelestialBody body : bodies) {
-            if (body == sun) continue; // El Sol no orbita a si mateix
+        for (int i = 0; i < store.size(); i++) {
+            if (i == sun) continue; // El Sol no orbita a si mateix
 
             // Clcul de distncia al Sol
-            double dx = body.getX() - sun.getX();
-            double dy = body.getY() - sun.getY();
+            double dx = x[i] - x[sun];
+            double dy = y[i] - y[sun];
             double r = Math.sqrt(dx * dx + dy * dy + SOFTENING);
+            double orbitalVelocity = orbitalSpeed(sunMass, r, store.getSemiMajorAxis(i));
 
-            double semiMajorAxis = body.getSemiMajorAxis();
-            double orbitalVelocity;
+            // Clcul de components de velocitat
+            double angle = Math.atan2(dy, dx);
+            vx[i] = -orbitalVelocity * Math.sin(angle); // Component x
+            vy[i] = orbitalVelocity * Math.cos(angle);  // Component y
+        }
+    }
 
-            if (semiMajorAxis > 0) {
-                // Frmula vis-viva per a rbites ellptiques
-                orbitalVelocity = Math.sqrt(G * sun.getMass() * (2.0 / r - 1.0 / semiMajorAxis));
-            } else {
-                // Velocitat orbital circular
-                orbitalVelocity = Math.sqrt(G * sun.getMass() / r);
-            }
+    /**
+     * Inicialitza l'rbita d'un sol cos, per afegir-lo a una simulaci en curs sense tocar la resta.
+     * La posici del cos s'interpreta relativa al Sol (com a la base de dades, on el Sol s a
+     * l'origen): es trasllada a la posici actual del Sol i la velocitat orbital se suma a la seva.
+     * @param i ndex del cos
+     */
+    public static void initializeOrbit(BodyStore store, int i) {
+        initializeOrbits(store, i, i + 1);
+    }
+
+    /**
+     * Inicialitza les rbites dels cossos d'un rang, com initializeOrbit, per afegir-ne molts
+     * alhora (el Sol noms es cerca un cop).
+     * @param from Primer ndex (incls)
+     * @param to ltim ndex (excls)
+     */
+    public static void initializeOrbits(BodyStore store, int from, int to) {
+        int sun = findSun(store);
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys();
+        double sunMass = store.getMasses()[sun];
+
+        for (int i = from; i < to; i++) {
+            if (i == sun) continue;
+            double dx = x[i];
+            double dy = y[i];
+            x[i] = x[sun] + dx;
+            y[i] = y[sun] + dy;
+            double r = Math.sqrt(dx * dx + dy * dy + SOFTENING);
+            double orbitalVelocity = orbitalSpeed(sunMass, r, store.getSemiMajorAxis(i));
 
-            // Clcul de components de velocitat
             double angle = Math.atan2(dy, dx);
-            body.setVx(-orbitalVelocity * Math.sin(angle)); // Component x
-            body.setVy(orbitalVelocity * Math.cos(angle));  // Component y
+            vx[i] = vx[sun] - orbitalVelocity * Math.sin(angle);
+            vy[i] = vy[sun] + orbitalVelocity * Math.cos(angle);
         }
+        store.setAccelerationsCurrent(false);
+    }
+
+    private static double orbitalSpeed(double sunMass, double r, double semiMajorAxis) {
+        if (semiMajorAxis > 0) {
+            // Frmula vis-viva per a rbites ellptiques
+            return Math.sqrt(G * sunMass * (2.0 / r - 1.0 / semiMajorAxis));
+        }
+        // Velocitat orbital circular
+        return Math.sqrt(G * sunMass / r);
     }
 
 
     /**
-     * Calcula les forces gravitatries entre tots els cossos.
+     * Calcula les acceleracions gravitatries entre tots els cossos.
+     * El resultat s'escriu als buffers d'acceleraci del magatzem.
      */
-    private static double[][] calculateGravitationalForces(List<CelestialBody> bodies) {
-        double[][] forces = new double[bodies.size()][2]; // Matriu de forces [x,y] per cada cos
+    private static void calculateGravitationalAccelerations(BodyStore store) {
+        int n = store.size();
+        if (store.getParticleCount() > 0) {
+            calculateAccelerationsWithParticles(store);
+            return;
+        }
+
+        ParallelForceKernel kernel = parallelKernel;
+        if (kernel != null && kernel.isWorthwhile(n)) {
+            kernel.computeAccelerations(store, G, SOFTENING);
+            return;
+        }
+        ForceKernel vector = vectorKernel;
+        if (vector != null) {
+            vector.computeAccelerations(store, G, SOFTENING);
+            return;
+        }
+        calculateScalarAccelerations(store);
+    }
+
+    /**
+     * Suma directa de parells en un sol fil, sense vectoritzar.
+     */
+    static void calculateScalarAccelerations(BodyStore store) {
+        int n = store.size();
+        double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+        double[] ax = store.getAxs(), ay = store.getAys();
+        Arrays.fill(ax, 0, n, 0.0);
+        Arrays.fill(ay, 0, n, 0.0);
         
-        for (int i = 0; i < bodies.size(); i++) {
-            CelestialBody a = bodies.get(i);
-            for (int j = i + 1; j < bodies.size(); j++) {
-                CelestialBody b = bodies.get(j);
-                
+        for (int i = 0; i < n; i++) {
+            double xi = x[i], yi = y[i], mi = mass[i];
+            double axi = 0, ayi = 0;
+            for (int j = i + 1; j < n; j++) {
                 // Vector distncia entre cossos
-                double dx = b.getX() - a.getX();
-                double dy = b.getY() - a.getY();
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
                 double rSquared = dx*dx + dy*dy + SOFTENING; // Distncia al quadrat + suavitzat
-                double r = Math.sqrt(rSquared);
                 
-                // Llei de gravitaci universal
-                double force = G * a.getMass() * b.getMass() / rSquared;
-                double fx = force * dx/r; // Component x de la fora
-                double fy = force * dy/r; // Component y de la fora
+                // Llei de gravitaci universal (G / r, la massa s'aplica a cada costat)
+                double g = G / (rSquared * Math.sqrt(rSquared));
                 
                 // Aplicar forces iguals i oposades (3a llei de Newton)
-                forces[i][0] += fx;
-                forces[i][1] += fy;
-                forces[j][0] -= fx;
-                forces[j][1] -= fy;
+                axi += g * mass[j] * dx;
+                ayi += g * mass[j] * dy;
+                ax[j] -= g * mi * dx;
+                ay[j] -= g * mi * dy;
             }
+            ax[i] += axi;
+            ay[i] += ayi;
         }
-        return forces;
     }
-    
+
+    /**
+     * Calcula les acceleracions quan hi ha partcules de prova.
+     * Els cossos massius interactuen entre ells per parells i cada partcula noms suma
+     * l'atracci dels cossos massius, de manera que el cost s O(M + MP) en lloc de O(N).
+     * Les partcules sn independents entre elles i es reparteixen entre els fils del nucli parallel.
+     */
+    private static void calculateAccelerationsWithParticles(BodyStore store) {
+        double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+        double[] ax = store.getAxs(), ay = store.getAys();
+        int[] massive = store.getMassiveIndices();
+        int massiveCount = store.getMassiveCount();
+
+        // 1. Interaccions entre cossos massius (3a llei de Newton)
+        for (int a = 0; a < massiveCount; a++) {
+            ax[massive[a]] = 0;
+            ay[massive[a]] = 0;
+        }
+        for (int a = 0; a < massiveCount; a++) {
+            int i = massive[a];
+            double xi = x[i], yi = y[i], mi = mass[i];
+            double axi = 0, ayi = 0;
+            for (int b = a + 1; b < massiveCount; b++) {
+                int j = massive[b];
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double rSquared = dx*dx + dy*dy + SOFTENING;
+                double g = G / (rSquared * Math.sqrt(rSquared));
+                axi += g * mass[j] * dx;
+                ayi += g * mass[j] * dy;
+                ax[j] -= g * mi * dx;
+                ay[j] -= g * mi * dy;
+            }
+            ax[i] += axi;
+            ay[i] += ayi;
+        }
+
+        // 2. Partcules de prova dins del camp dels cossos massius
+        int[] particles = store.getParticleIndices();
+        int particleCount = store.getParticleCount();
+        ParallelForceKernel kernel = parallelKernel;
+        if (kernel != null && kernel.isWorthwhile(particleCount)) {
+            kernel.computeParticleAccelerations(store, G, SOFTENING);
+            return;
+        }
+        accumulateParticleAccelerations(store, particles, 0, particleCount, G, SOFTENING);
+    }
+
     /**
-     * Actualitza posicions i velocitats usant integraci Euler simple.
-     */
-    private static void updatePositionsAndVelocities(List<CelestialBody> bodies, 
-            double[][] forces, double timeStep) {
-        for (int i = 0; i < bodies.size(); i++) {
-            CelestialBody body = bodies.get(i);
-            
-            // Acceleraci = Fora / Massa 
-            double ax = forces[i][0] / body.getMass();
-            double ay = forces[i][1] / body.getMass();
-            
-            // Actualitzar velocitat 
-            body.setVx(body.getVx() + ax * timeStep);
-            body.setVy(body.getVy() + ay * timeStep);
-            
-            // Actualitzar posici
-            body.setX(body.getX() + body.getVx() * timeStep);
-            body.setY(body.getY() + body.getVy() * timeStep);
+     * Calcula l'acceleraci de les partcules particles[from..to) deguda noms als cossos massius.
+     * Cada partcula noms escriu la seva prpia posici dels buffers, de manera que
+     * diversos fils poden processar intervals disjunts alhora.
+     */
+    static void accumulateParticleAccelerations(BodyStore store, int[] particles, int from, int to,
+            double G, double softening) {
+        double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+        double[] ax = store.getAxs(), ay = store.getAys();
+        int[] massive = store.getMassiveIndices();
+        int massiveCount = store.getMassiveCount();
+
+        for (int k = from; k < to; k++) {
+            int i = particles[k];
+            double xi = x[i], yi = y[i];
+            double axi = 0, ayi = 0;
+            for (int b = 0; b < massiveCount; b++) {
+                int j = massive[b];
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double rSquared = dx*dx + dy*dy + softening;
+                double g = G * mass[j] / (rSquared * Math.sqrt(rSquared));
+                axi += g * dx;
+                ayi += g * dy;
+            }
+            ax[i] = axi;
+            ay[i] = ayi;
         }
     }
+
+    /**
+     * Calcula les acceleracions gravitatries aproximades amb un quadtree de Barnes-Hut.
+     * L'arbre es reconstrueix a cada crida amb les posicions actuals.
+     */
+    private static void calculateBarnesHutAccelerations(BodyStore store, BarnesHutTree tree, double theta) {
+        tree.build(store);
+        tree.computeAccelerations(theta, G, SOFTENING, store.getAxs(), store.getAys());
+    }
     
     /**
-     * Troba el Sol a la llista de cossos celestes.
+     * Carrega el nucli SIMD per reflexi. No hi s si no s'ha installat el seu jar, i no es
+     * pot carregar si la JVM no t el mdul jdk.incubator.vector habilitat.
+     * @return El nucli, o null si no est disponible o no vectoritza (un sol carril)
+     */
+    private static ForceKernel loadVectorKernel() {
+        try {
+            Class.forName("jdk.incubator.vector.DoubleVector");
+            ForceKernel kernel = (ForceKernel) Class.forName(VECTOR_KERNEL_CLASS)
+                    .getDeclaredConstructor().newInstance();
+            return kernel.lanes() > 1 ? kernel : null;
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Troba el Sol al magatzem de cossos celestes.
      */
-    private static CelestialBody findSun(List<CelestialBody> bodies) {
-        return bodies.stream()
-            .filter(b -> "Sun".equals(b.getName()))
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("El sistema solar ha de contenir un Sol"));
+    private static int findSun(BodyStore store) {
+        int sun = store.indexOf("Sun");
+        if (sun < 0) {
+            throw new IllegalArgumentException("El sistema solar ha de contenir un Sol");
+        }
+        return sun;
     }
     
     /**
@@ -10,43 +10,43 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Servlet per a l'administraci de planetes del sistema solar.
  * Gestiona operacions CRUD sobre els cossos celestes i permet reiniciar la base de dades.
+ * Els catlegs amb molts cossos s'importen amb un POST a /api/planetadmin/import (vegeu importBodies).
  */
-@WebServlet(name = "PlanetAdminServlet", urlPatterns = {"/api/planetadmin", "/api/planetadmin/reset"})
+@WebServlet(name = "PlanetAdminServlet",
+            urlPatterns = {"/api/planetadmin", "/api/planetadmin/reset", "/api/planetadmin/import"})
 public class PlanetAdminServlet extends HttpServlet {
     private final Gson gson = new Gson();
-    private static final String DB_URL = "jdbc:mysql://localhost:3306/solar_system";
-    private static final String DB_USER = "your_username";   // <-- Reemplaar si cal
-    private static final String DB_PASSWORD = "your_password"; // <-- Reemplaar si cal
 
     /**
      * Processa peticions GET per obtenir la llista de planetes.
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(
-                 "SELECT name, mass, semi_major_axis, eccentricity, radius, color FROM celestial_bodies")) {
-
+        try {
+            // Es llegeix de la cpia en memria de la taula; la posici inicial s el semieix major
             List<CelestialBody> planets = new ArrayList<>();
-            while (rs.next()) {
+            for (CelestialBody stored : DbManager.loadInitialState()) {
                 CelestialBody body = new CelestialBody(
-                    rs.getString("name"),
-                    rs.getDouble("mass"),
-                    rs.getDouble("semi_major_axis"),
+                    stored.getName(),
+                    stored.getMass(),
+                    stored.getSemiMajorAxis(),
                     0, 0, 0,  // Posici i velocitat inicials a 0
-                    rs.getInt("radius"),
-                    rs.getString("color")
+                    stored.getRadius(),
+                    stored.getColor()
                 );
-                body.setSemiMajorAxis(rs.getDouble("semi_major_axis"));
-                body.setEccentricity(rs.getDouble("eccentricity"));
+                body.setSemiMajorAxis(stored.getSemiMajorAxis());
+                body.setEccentricity(stored.getEccentricity());
+                body.setParticle(stored.isParticle());
                 planets.add(body);
             }
 
@@ -66,7 +66,11 @@ public class PlanetAdminServlet extends HttpServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         // Gestiona la petici de reinici
         if (req.getRequestURI().endsWith("/reset")) {
-            resetDatabase(resp);
+            resetDatabase(req, resp);
+            return;
+        }
+        if (req.getRequestURI().endsWith("/import")) {
+            importBodies(req, resp);
             return;
         }
 
@@ -75,10 +79,33 @@ public class PlanetAdminServlet extends HttpServlet {
             JsonObject json = JsonParser.parseReader(req.getReader()).getAsJsonObject();
             
             CelestialBody newPlanet = parsePlanetFromJson(json);
-            insertPlanetIntoDatabase(newPlanet);
+            DbManager.insertBody(newPlanet);
             
             resp.setStatus(HttpServletResponse.SC_CREATED);
-            updateSimulationState();
+            updateSimulationState(req, state -> state.addBody(newPlanet));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Processa peticions PUT per modificar un planeta existent (mateix JSON que el POST).
+     */
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+            JsonObject json = JsonParser.parseReader(req.getReader()).getAsJsonObject();
+
+            CelestialBody planet = parsePlanetFromJson(json);
+            if (DbManager.updateBody(planet) == 0) {
+                resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            updateSimulationState(req, state -> state.updateBody(planet));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -97,14 +124,10 @@ public class PlanetAdminServlet extends HttpServlet {
             return;
         }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             PreparedStatement ps = conn.prepareStatement(
-                 "DELETE FROM celestial_bodies WHERE name = ?")) {
-
-            ps.setString(1, name);
-            ps.executeUpdate();
+        try {
+            DbManager.deleteBody(name);
             resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
-            updateSimulationState();
+            updateSimulationState(req, state -> state.removeBodies(name));
 
         } catch (SQLException e) {
             e.printStackTrace();
@@ -115,28 +138,11 @@ public class PlanetAdminServlet extends HttpServlet {
     /**
      * Reinicia la base de dades als valors per defecte del sistema solar.
      */
-    private void resetDatabase(HttpServletResponse resp) throws IOException {
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             Statement stmt = conn.createStatement()) {
-
-            // Esborra tots els registres existents
-            stmt.executeUpdate("DELETE FROM celestial_bodies");
-
-            // Inserta els planetes del sistema solar per defecte
-            stmt.executeUpdate(
-                "INSERT INTO celestial_bodies (name, mass, semi_major_axis, eccentricity, radius, color, x, y, vx, vy) VALUES " +
-                "('Sun', 1.989e30, 0, 0, 20, '#FFFF00', 0, 0, 0, 0)," +
-                "('Mercury', 3.3011e23, 5.791e10, 0.2056, 5, '#A9A9A9', 5.791e10 * (1-0.2056), 0, 0, 0)," +
-                "('Venus', 4.8675e24, 1.0821e11, 0.0067, 8, '#FFA500', 1.0821e11 * (1-0.0067), 0, 0, 0)," +
-                "('Earth', 5.972e24, 1.496e11, 0.0167, 8, '#1E90FF', 1.496e11 * (1-0.0167), 0, 0, 0)," +
-                "('Mars', 6.417e23, 2.2794e11, 0.0935, 6, '#FF4500', 2.2794e11 * (1-0.0935), 0, 0, 0)," +
-                "('Jupiter', 1.899e27, 7.7857e11, 0.0489, 15, '#DAA520', 7.7857e11 * (1-0.0489), 0, 0, 0)," +
-                "('Saturn', 5.685e26, 1.4335e12, 0.0565, 12, '#F0E68C', 1.4335e12 * (1-0.0565), 0, 0, 0)," +
-                "('Uranus', 8.682e25, 2.8725e12, 0.0457, 10, '#AFEEEE', 2.8725e12 * (1-0.0457), 0, 0, 0)," +
-                "('Neptune', 1.024e26, 4.4951e12, 0.0113, 10, '#0000CD', 4.4951e12 * (1-0.0113), 0, 0, 0)");
-
+    private void resetDatabase(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+            DbManager.restoreDefaultBodies();
             resp.setStatus(HttpServletResponse.SC_OK);
-            updateSimulationState();
+            updateSimulationState(req, SimulationState::reload);
 
         } catch (SQLException e) {
             e.printStackTrace();
@@ -144,6 +150,55 @@ public class PlanetAdminServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Importa un catleg de cossos enviat al cos de la petici (vegeu BodyImporter).
+     * Parmetres: "format" (csv, per defecte, o fixed), "widths" (amplades del format fixed) i
+     * "load" (true per afegir tamb els cossos a la simulaci del client).
+     * El catleg es desa en un fitxer temporal i es llegeix en streaming: primer s'insereix a la
+     * base de dades en una sola transacci i desprs, si cal, es torna a llegir per afegir-lo
+     * a la simulaci sense passar pel catleg en memria.
+     */
+    private void importBodies(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json");
+        Path file = Files.createTempFile("bodies-", ".import");
+        try {
+            if (!BodyImporter.copy(req.getInputStream(), file)) {
+                resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                resp.getWriter().write("{\"error\":\"El catleg supera la mida mxima d'importaci\"}");
+                return;
+            }
+            int[] widths = "fixed".equals(req.getParameter("format"))
+                    ? BodyImporter.parseWidths(req.getParameter("widths")) : null;
+
+            long imported;
+            try (BodyImporter importer = new BodyImporter(file, widths)) {
+                imported = DbManager.insertBodies(importer);
+            }
+
+            if ("true".equals(req.getParameter("load"))) {
+                updateSimulationState(req, state -> {
+                    try (BodyImporter importer = new BodyImporter(file, widths)) {
+                        state.addBodies(importer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+
+            resp.setStatus(HttpServletResponse.SC_CREATED);
+            resp.getWriter().write("{\"imported\":" + imported + "}");
+
+        } catch (IllegalArgumentException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write(gson.toJson(Collections.singletonMap("error", e.getMessage())));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
     // ================================================
     // Mtodes privats d'ajuda
     // ================================================
@@ -158,45 +213,36 @@ public class PlanetAdminServlet extends HttpServlet {
         double eccentricity = json.get("eccentricity").getAsDouble();
         int radius = json.get("radius").getAsInt();
         String color = json.get("color").getAsString();
+        // Camp opcional: les partcules de prova (asteroides, cintur de Kuiper...) no exerceixen gravetat
+        boolean particle = json.has("particle") && json.get("particle").getAsBoolean();
 
-        return new CelestialBody(
-            name, mass, semiMajorAxis * (1 - eccentricity), 
-            0, 0, 0, radius, color
-        );
+        return CelestialBody.fromOrbitalElements(name, mass, semiMajorAxis, eccentricity, radius, color, particle);
     }
 
     /**
-     * Insereix un nou planeta a la base de dades.
+     * Recarrega la simulaci del client que ha fet el canvi a la base de dades.
+     * Les simulacions dels altres clients conserven els seus cossos.
+     * El canvi s'aplica noms als cossos afectats; si no es pot (per exemple, la simulaci no
+     * t Sol), es recarreguen tots els cossos de la base de dades.
      */
-    private void insertPlanetIntoDatabase(CelestialBody planet) throws SQLException {
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             PreparedStatement ps = conn.prepareStatement(
-                 "INSERT INTO celestial_bodies (name, mass, semi_major_axis, eccentricity, radius, color, x, y, vx, vy) " +
-                 "VALUES (?, ?, ?, ?, ?, ?, ?, 0, 0, 0)")) {
-
-            ps.setString(1, planet.getName());
-            ps.setDouble(2, planet.getMass());
-            ps.setDouble(3, planet.getSemiMajorAxis());
-            ps.setDouble(4, planet.getEccentricity());
-            ps.setInt(5, planet.getRadius());
-            ps.setString(6, planet.getColor());
-            ps.setDouble(7, planet.getX()); // Posici inicial al periheli
-            ps.executeUpdate();
+    private void updateSimulationState(HttpServletRequest req, SimulationChange change) {
+        try {
+            SimulationState state = SimulationRegistry.from(getServletContext()).resolve(req).getState();
+            try {
+                change.apply(state);
+            } catch (RuntimeException e) {
+                state.reload();
+            }
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
         }
     }
 
     /**
-     * Actualitza l'estat de la simulaci desprs de canvis a la base de dades.
+     * Canvi que s'aplica a la simulaci del client desprs d'escriure a la base de dades.
      */
-    private void updateSimulationState() {
-        SimulationState state = (SimulationState) getServletContext().getAttribute("simulationState");
-        if (state != null) {
-            try {
-                state.reload();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
+    private interface SimulationChange {
+        void apply(SimulationState state) throws SQLException;
     }
 }
 
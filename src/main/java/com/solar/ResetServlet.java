@@ -1,9 +1,12 @@
 package com.solar;
 
+import com.solar.model.CelestialBody;
 import com.solar.model.SimulationState;
 import com.google.gson.Gson;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
@@ -19,15 +22,12 @@ public class ResetServlet extends HttpServlet {
         resp.setContentType("application/json");
         
         try {
-            SimulationState state = (SimulationState) getServletContext()
-                .getAttribute("simulationState");
-            
-            if (state == null) {
-                throw new Exception("Simulation state not initialized");
-            }
-            
+            SimulationState state = SimulationRegistry.from(getServletContext()).resolve(req).getState();
             state.reset();
-            resp.getWriter().write(new Gson().toJson(state.getBodies()));
+            List<CelestialBody> bodies = state.getBodies().stream()
+                .map(CelestialBody::detachedCopy)
+                .collect(Collectors.toList());
+            resp.getWriter().write(new Gson().toJson(bodies));
             
         } catch (Exception e) {
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -0,0 +1,53 @@
+package com.solar;
+
+import com.solar.model.SimulationState;
+
+import java.io.IOException;
+import javax.servlet.*;
+import javax.servlet.http.*;
+import javax.servlet.annotation.*;
+
+/**
+ * Servlet per saltar directament a un instant de la simulaci.
+ * Accepta el parmetre "time" (segons) o "years" (anys des de l'ltim reinici).
+ * En mode Kepler el salt s analtic; amb els altres integradors es torna enrere des del
+ * fotograma clau ms proper (vegeu Timeline) i s'avana integrant pas a pas.
+ */
+@WebServlet("/api/simulation/seek")
+public class SeekServlet extends HttpServlet {
+    private static final double YEAR = 365.25 * 86400;
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException, IOException {
+
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+        resp.setHeader("Access-Control-Allow-Methods", "POST");
+        resp.setContentType("application/json");
+
+        try {
+            SimulationState state = SimulationRegistry.from(getServletContext()).resolve(req).getState();
+
+            state.seek(parseTargetTime(req));
+            resp.getWriter().write("{\"status\":\"success\",\"tick\":" + state.getTick()
+                    + ",\"simulationTime\":" + state.getSimulationTime() + "}");
+
+        } catch (Exception e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write("{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    /**
+     * Llegeix l'instant de destinaci dels parmetres de la petici.
+     */
+    private double parseTargetTime(HttpServletRequest req) {
+        if (req.getParameter("time") != null) {
+            return Double.parseDouble(req.getParameter("time"));
+        }
+        if (req.getParameter("years") != null) {
+            return Double.parseDouble(req.getParameter("years")) * YEAR;
+        }
+        throw new IllegalArgumentException("Cal indicar el parmetre time o years");
+    }
+}
@@ -1,22 +1,190 @@
 package com.solar;
 
-import com.solar.model.SimulationState;
+import com.solar.model.Timeline;
+import com.solar.model.TrailHistory;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import java.sql.SQLException;
 
 @WebListener
 public class SimulationContextListener implements ServletContextListener {
+    private SimulationTicker ticker;
+    private FrameStreamHub streamHub;
+    private LongPollHub longPollHub;
+    private ConnectionPool connectionPool;
+    private StatePersister statePersister;
+
     @Override
     public void contextInitialized(ServletContextEvent sce) {
+        configureDatabase(sce);
+        configurePhysicsThreads(sce);
+        configureVectorKernel(sce);
+        TrailHistory.configure((int) longParam(sce, "trailPoints", 512), (int) longParam(sce, "trailStride", 4));
+        Timeline.configure((int) longParam(sce, "keyframeInterval", 300),
+                longParam(sce, "keyframeMemoryMB", 8) * 1024 * 1024);
+        SimulationRegistry registry = createRegistry(sce);
+        sce.getServletContext().setAttribute(SimulationRegistry.ATTRIBUTE, registry);
+        // Punt de control peridic de la simulaci usada ms recentment
+        statePersister.setSource(registry::getMostRecentlyUsed);
+        System.out.println(" Simulation registry initialized successfully ");
+        long frameCacheMB = longParam(sce, "frameCacheMB", 32);
+        sce.getServletContext().setAttribute(FrameCache.ATTRIBUTE, new FrameCache(frameCacheMB * 1024 * 1024));
+        startTicker(sce, registry);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (streamHub != null) {
+            streamHub.stop();
+        }
+        if (longPollHub != null) {
+            longPollHub.stop();
+        }
+        if (ticker != null) {
+            ticker.stop();
+        }
+        if (statePersister != null) {
+            // Escriu el que quedi pendent abans de tancar les connexions
+            StatePersister.install(null);
+            statePersister.stop();
+        }
+        PhysicsEngine.shutdown();
+        if (connectionPool != null) {
+            DbManager.setDataSource(null);
+            connectionPool.close();
+        }
+    }
+
+    /**
+     * Crea el grup de connexions a la base de dades amb els parmetres de context "dbProfile",
+     * "dbUrl", "dbUser", "dbPassword", "dbPoolSize", "dbStatementCache" i "dbTimeoutSeconds".
+     * El perfil "embedded" fa servir una base de dades H2 en memria dins del mateix procs
+     * (cal h2.jar a WEB-INF/lib) amb la taula i els planetes per defecte, per provar
+     * la persistncia sense MySQL.
+     */
+    private void configureDatabase(ServletContextEvent sce) {
+        boolean embedded = "embedded".equalsIgnoreCase(stringParam(sce, "dbProfile", "mysql"));
+        String driver = embedded ? "org.h2.Driver" : "com.mysql.cj.jdbc.Driver";
+        String url = stringParam(sce, "dbUrl", embedded
+                ? "jdbc:h2:mem:solar_system;MODE=MySQL;DB_CLOSE_DELAY=-1"
+                : "jdbc:mysql://localhost:3306/solar_system?rewriteBatchedStatements=true");
         try {
-            SimulationState simulationState = new SimulationState();
-            sce.getServletContext().setAttribute("simulationState", simulationState);
-            System.out.println(" Simulation State initialized successfully ");
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to initialize SimulationState", e);
+            Class.forName(driver);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("No s'ha trobat el controlador JDBC " + driver
+                    + (embedded ? " (cal h2.jar a WEB-INF/lib per al perfil embedded)" : ""), e);
+        }
+
+        connectionPool = new ConnectionPool(url,
+                stringParam(sce, "dbUser", embedded ? "sa" : ""),
+                stringParam(sce, "dbPassword", ""),
+                (int) longParam(sce, "dbPoolSize", 8),
+                (int) longParam(sce, "dbStatementCache", 32),
+                longParam(sce, "dbTimeoutSeconds", 10) * 1000);
+        DbManager.setDataSource(connectionPool);
+        DbManager.setCatalogMaxAge(longParam(sce, "catalogMaxAgeSeconds", 300) * 1000);
+        if (embedded) {
+            try {
+                DbManager.createEmbeddedSchema();
+            } catch (SQLException e) {
+                throw new IllegalStateException("No s'ha pogut crear la base de dades local", e);
+            }
+        }
+        System.out.println(" Database pool: " + (embedded ? "embedded" : "mysql") + ", "
+                + connectionPool.getMaxSize() + " connections ");
+
+        // Els desaments de l'estat s'escriuen en segon pla cada "persistIntervalSeconds"
+        statePersister = new StatePersister(longParam(sce, "persistIntervalSeconds", 10) * 1000);
+        sce.getServletContext().setAttribute(StatePersister.ATTRIBUTE, statePersister);
+        StatePersister.install(statePersister);
+        statePersister.start();
+
+        BodyImporter.setMaxFileBytes(longParam(sce, "importMaxMB", 512) * 1024 * 1024);
+    }
+
+    /**
+     * Engega el fil de simulaci amb el parmetre de context "tickRate" (passos per segon).
+     */
+    private void startTicker(ServletContextEvent sce, SimulationRegistry registry) {
+        String param = sce.getServletContext().getInitParameter("tickRate");
+        int tickRate = param == null ? 30 : Integer.parseInt(param.trim());
+        ticker = new SimulationTicker(registry, tickRate);
+        ticker.start();
+        System.out.println(" Simulation ticker started at " + tickRate + " ticks/s ");
+
+        // Els fotogrames s'envien als clients connectats al mateix ritme que avana la simulaci
+        streamHub = new FrameStreamHub(registry, tickRate);
+        sce.getServletContext().setAttribute(FrameStreamHub.ATTRIBUTE, streamHub);
+        streamHub.start();
+
+        // Les peticions de long-poll es responen just desprs de cada pas
+        longPollHub = createLongPollHub(sce);
+        sce.getServletContext().setAttribute(LongPollHub.ATTRIBUTE, longPollHub);
+        ticker.addTickListener(longPollHub::onTick);
+        System.out.println(" Long-poll responses on "
+                + (longPollHub.isUsingVirtualThreads() ? "virtual" : "platform") + " threads ");
+    }
+
+    /**
+     * Crea el hub de long-poll amb els parmetres de context "longPollTimeoutSeconds",
+     * "longPollVirtualThreads" (per defecte actiu si la JVM en t) i "longPollThreads"
+     * (fils de plataforma si no n'hi ha; 0 = tots els processadors).
+     */
+    private LongPollHub createLongPollHub(ServletContextEvent sce) {
+        long timeoutSeconds = longParam(sce, "longPollTimeoutSeconds", 25);
+        String param = sce.getServletContext().getInitParameter("longPollVirtualThreads");
+        boolean virtualThreads = param == null || Boolean.parseBoolean(param.trim());
+        int threads = (int) longParam(sce, "longPollThreads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
         }
+        return new LongPollHub(timeoutSeconds * 1000, virtualThreads, threads);
+    }
+
+    /**
+     * Crea el registre de simulacions amb els parmetres de context "simulationMemoryMB",
+     * "simulationIdleSeconds" i "maxSimulations".
+     */
+    private SimulationRegistry createRegistry(ServletContextEvent sce) {
+        long memoryMB = longParam(sce, "simulationMemoryMB", 256);
+        long idleSeconds = longParam(sce, "simulationIdleSeconds", 300);
+        int maxSimulations = (int) longParam(sce, "maxSimulations", 5000);
+        return new SimulationRegistry(memoryMB * 1024 * 1024, idleSeconds * 1000, maxSimulations);
     }
 
+    private static String stringParam(ServletContextEvent sce, String name, String defaultValue) {
+        String param = sce.getServletContext().getInitParameter(name);
+        return param == null ? defaultValue : param.trim();
+    }
+
+    private static long longParam(ServletContextEvent sce, String name, long defaultValue) {
+        String param = sce.getServletContext().getInitParameter(name);
+        return param == null ? defaultValue : Long.parseLong(param.trim());
+    }
+
+    /**
+     * Llegeix el parmetre de context "vectorKernel" (per defecte inactiu: el nucli SIMD fa servir
+     * una API en incubaci i s'installa a part, vegeu VectorForceKernel).
+     */
+    private void configureVectorKernel(ServletContextEvent sce) {
+        String param = sce.getServletContext().getInitParameter("vectorKernel");
+        boolean enabled = param != null && Boolean.parseBoolean(param.trim());
+        boolean active = PhysicsEngine.setVectorKernelEnabled(enabled);
+        System.out.println(" SIMD force kernel: " + (active ? "enabled" : "disabled") + " ");
+    }
+
+    /**
+     * Llegeix el parmetre de context "physicsThreads" (0 = tots els processadors disponibles).
+     */
+    private void configurePhysicsThreads(ServletContextEvent sce) {
+        String param = sce.getServletContext().getInitParameter("physicsThreads");
+        int threads = param == null ? 0 : Integer.parseInt(param.trim());
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        PhysicsEngine.setParallelism(threads);
+        System.out.println(" Physics threads: " + threads + " ");
+    }
 }
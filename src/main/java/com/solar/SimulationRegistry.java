@@ -0,0 +1,340 @@
+package com.solar;
+
+import com.solar.controller.ViewportController;
+import com.solar.model.SimulationSnapshot;
+import com.solar.model.SimulationState;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Registre de simulacions independents, una per client.
+ * Cada client s'identifica pel parmetre "sim" o, si no n'hi ha, per la sessi HTTP,
+ * i t la seva prpia simulaci i el seu propi viewport.
+ *
+ * Les simulacions sense accs durant un temps s'hibernen: es guarden com una instantnia
+ * comprimida (SimulationSnapshot), deixen d'avanar i es restauren quan el client hi torna.
+ * Si la memria estimada supera el lmit, primer s'hibernen i desprs s'eliminen
+ * les simulacions usades menys recentment (LRU).
+ */
+public class SimulationRegistry {
+    /** Nom de l'atribut del ServletContext on es desa el registre. */
+    public static final String ATTRIBUTE = "simulationRegistry";
+
+    private static final Pattern SIMULATION_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final long BASE_BYTES = 16 * 1024;  // Arbre, planificadors, viewport...
+    private static final long BYTES_PER_BODY = 400;    // Arrays del magatzem, fotogrames i vistes
+
+    private final long memoryBudget;
+    private final long idleMillis;
+    private final int maxSimulations;
+
+    // Ordre d'accs: el primer element s el menys usat recentment
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+    private long hibernatedBytes;
+    private long evictions;
+
+    /**
+     * Crea el registre.
+     * @param memoryBudget Memria mxima estimada de totes les simulacions, en bytes
+     * @param idleMillis Temps sense accessos a partir del qual una simulaci s'hiberna
+     * @param maxSimulations Nombre mxim de simulacions (actives o hibernades)
+     */
+    public SimulationRegistry(long memoryBudget, long idleMillis, int maxSimulations) {
+        if (memoryBudget <= 0 || idleMillis <= 0 || maxSimulations <= 0) {
+            throw new IllegalArgumentException("Els lmits del registre de simulacions han de ser positius");
+        }
+        this.memoryBudget = memoryBudget;
+        this.idleMillis = idleMillis;
+        this.maxSimulations = maxSimulations;
+    }
+
+    /**
+     * Retorna el registre desat al context de l'aplicaci.
+     */
+    public static SimulationRegistry from(ServletContext context) {
+        SimulationRegistry registry = (SimulationRegistry) context.getAttribute(ATTRIBUTE);
+        if (registry == null) {
+            throw new IllegalStateException("El registre de simulacions no s'ha inicialitzat.");
+        }
+        return registry;
+    }
+
+    /**
+     * Obt la simulaci del client que fa la petici, i la crea amb tots els cossos
+     * de la base de dades si encara no en t cap.
+     * @throws SQLException Si cal crear la simulaci i falla l'accs a la base de dades
+     */
+    public Entry resolve(HttpServletRequest req) throws SQLException {
+        String id = clientId(req);
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                touch(entry);
+                return entry;
+            }
+        }
+        // La crrega de la base de dades es fa fora del bloqueig
+        return install(id, new SimulationState(), false);
+    }
+
+    /**
+     * Retorna la simulaci registrada amb l'identificador indicat, sense crear-ne cap.
+     * @return La simulaci, o null si no existeix (o s'ha eliminat)
+     */
+    public synchronized Entry get(String id) {
+        return entries.get(id);
+    }
+
+    /**
+     * Substitueix la simulaci del client que fa la petici (conserva el seu viewport).
+     */
+    public Entry replace(HttpServletRequest req, SimulationState state) {
+        return install(clientId(req), state, true);
+    }
+
+    /**
+     * Elimina la simulaci indicada (per exemple, quan caduca la sessi).
+     */
+    public synchronized void remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) release(entry);
+    }
+
+    /**
+     * Avana un pas totes les simulacions actives. Un error en una simulaci no atura les altres.
+     * @param speedFactor Multiplicador de l'escala de temps de cada simulaci
+     */
+    public void advanceAll(double speedFactor) {
+        List<SimulationState> active;
+        synchronized (this) {
+            active = new ArrayList<>(entries.size());
+            for (Entry entry : entries.values()) {
+                if (entry.state != null) active.add(entry.state);
+            }
+        }
+        for (SimulationState state : active) {
+            try {
+                state.advance(state.getTimeScale() * speedFactor);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Hiberna les simulacions inactives i aplica els lmits de memria i de nombre de simulacions.
+     * El crida peridicament el fil de simulaci.
+     */
+    public synchronized void maintain() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries.values()) {
+            if (entry.state == null) continue;
+            if (now - entry.lastAccess > idleMillis) {
+                hibernate(entry);
+            } else {
+                // La lnia de temps i el nombre de cossos creixen mentre la simulaci avana
+                residentBytes -= entry.bytes;
+                entry.bytes = estimate(entry.state);
+                residentBytes += entry.bytes;
+            }
+        }
+        enforceLimits(null);
+    }
+
+    /** Retorna el nombre de simulacions actives (no hibernades). */
+    public synchronized int getResidentCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.state != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Retorna la simulaci activa usada ms recentment (la que desa StatePersister a cada interval).
+     * @return La simulaci, o null si no n'hi ha cap d'activa
+     */
+    public synchronized SimulationState getMostRecentlyUsed() {
+        SimulationState latest = null;
+        for (Entry entry : entries.values()) {
+            if (entry.state != null) latest = entry.state;
+        }
+        return latest;
+    }
+
+    /** Retorna el nombre total de simulacions registrades. */
+    public synchronized int size() { return entries.size(); }
+
+    /** Retorna la memria estimada de totes les simulacions, en bytes. */
+    public synchronized long getEstimatedBytes() { return residentBytes + hibernatedBytes; }
+
+    /** Retorna quantes simulacions s'han eliminat per falta d'espai. */
+    public synchronized long getEvictions() { return evictions; }
+
+    /**
+     * Registra una simulaci per a l'identificador indicat.
+     * @param replaceExisting Si s fals i el client ja t simulaci (dues peticions simultnies
+     *                        l'han creada alhora), es conserva la que ja hi havia
+     */
+    private synchronized Entry install(String id, SimulationState state, boolean replaceExisting) {
+        Entry previous = entries.get(id);
+        if (previous != null && !replaceExisting) {
+            touch(previous);
+            return previous;
+        }
+        ViewportController viewport = new ViewportController(800, 600);
+        if (previous != null) {
+            entries.remove(id);
+            release(previous);
+            viewport = previous.viewport;
+        }
+        Entry entry = new Entry(id, viewport);
+        entry.state = state;
+        entry.bytes = estimate(state);
+        residentBytes += entry.bytes;
+        entry.lastAccess = System.currentTimeMillis();
+        entries.put(id, entry);
+        enforceLimits(entry);
+        return entry;
+    }
+
+    /**
+     * Marca l'accs a una simulaci i la restaura si estava hibernada.
+     */
+    private void touch(Entry entry) {
+        entry.lastAccess = System.currentTimeMillis();
+        if (entry.state == null) {
+            restore(entry);
+            enforceLimits(entry);
+        }
+    }
+
+    /**
+     * Hiberna primer i elimina desprs les simulacions menys usades fins a complir els lmits.
+     * @param keep Simulaci que no s'ha de tocar (la que s'acaba d'usar), o null
+     */
+    private void enforceLimits(Entry keep) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (residentBytes + hibernatedBytes > memoryBudget && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry != keep && entry.state != null) hibernate(entry);
+        }
+        it = entries.values().iterator();
+        while ((residentBytes + hibernatedBytes > memoryBudget || entries.size() > maxSimulations)
+                && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry == keep) continue;
+            it.remove();
+            release(entry);
+            evictions++;
+        }
+    }
+
+    private void hibernate(Entry entry) {
+        byte[] snapshot = SimulationSnapshot.capture(entry.state);
+        residentBytes -= entry.bytes;
+        entry.state = null;
+        entry.snapshot = snapshot;
+        entry.bytes = snapshot.length;
+        hibernatedBytes += entry.bytes;
+    }
+
+    private void restore(Entry entry) {
+        SimulationState state = SimulationSnapshot.restore(entry.snapshot);
+        hibernatedBytes -= entry.bytes;
+        entry.snapshot = null;
+        entry.state = state;
+        entry.bytes = estimate(state);
+        residentBytes += entry.bytes;
+    }
+
+    private void release(Entry entry) {
+        if (entry.state != null) residentBytes -= entry.bytes;
+        else hibernatedBytes -= entry.bytes;
+        entry.state = null;
+        entry.snapshot = null;
+        entry.evicted = true;
+    }
+
+    private static long estimate(SimulationState state) {
+        // Les traces es guarden fora del heap per tamb compten: doble buffer de float x, y
+        long trailBytes = 2L * state.getTrailHistory().getCapacity() * 2 * Float.BYTES
+                * state.getBodyStore().getMassiveCount();
+        return BASE_BYTES + BYTES_PER_BODY * state.getBodyStore().getXs().length + trailBytes
+                + state.getTimeline().getBytes();
+    }
+
+    /**
+     * Identificador del client: parmetre "sim" si s vlid, o l'identificador de sessi.
+     */
+    private static String clientId(HttpServletRequest req) {
+        String sim = req.getParameter("sim");
+        if (sim != null) {
+            if (!SIMULATION_ID.matcher(sim).matches()) {
+                throw new IllegalArgumentException("Identificador de simulaci no vlid");
+            }
+            return "sim:" + sim;
+        }
+        return req.getSession(true).getId();
+    }
+
+    /**
+     * Simulaci d'un client: el seu estat (actiu o hibernat) i el seu viewport.
+     */
+    public final class Entry {
+        private final String id;
+        private final ViewportController viewport;
+        private final BinaryFrameEncoder.History frameHistory = new BinaryFrameEncoder.History();
+        private SimulationState state;     // null si est hibernada
+        private byte[] snapshot;           // Noms mentre est hibernada
+        private long bytes;                // Memria estimada (activa) o mida de la instantnia
+        private long lastAccess;
+        private boolean evicted;
+
+        private Entry(String id, ViewportController viewport) {
+            this.id = id;
+            this.viewport = viewport;
+        }
+
+        /** Retorna l'identificador del client. */
+        public String getId() { return id; }
+
+        /** Retorna el viewport propi del client. */
+        public ViewportController getViewport() { return viewport; }
+
+        /** Retorna els fotogrames binaris enviats al client (per codificar deltes). */
+        public BinaryFrameEncoder.History getFrameHistory() { return frameHistory; }
+
+        /**
+         * Retorna la simulaci del client tal com est, sense restaurar-la ni comptar-ho com un accs.
+         * @return La simulaci, o null si est hibernada o s'ha eliminat
+         */
+        SimulationState peekState() {
+            synchronized (SimulationRegistry.this) {
+                return state;
+            }
+        }
+
+        /**
+         * Retorna la simulaci del client, restaurant-la si s'ha hibernat mentrestant.
+         * @throws IllegalStateException Si la simulaci s'ha eliminat per falta d'espai
+         */
+        public SimulationState getState() {
+            synchronized (SimulationRegistry.this) {
+                if (evicted) {
+                    throw new IllegalStateException("La simulaci ha caducat; cal iniciar-ne una de nova.");
+                }
+                touch(this);
+                return state;
+            }
+        }
+    }
+}
@@ -1,41 +1,38 @@
 package com.solar;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.solar.controller.ViewportController;
-import com.solar.model.CelestialBody;
+import com.solar.model.SimulationFrame;
 import com.solar.model.SimulationState;
 
 import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.*;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Servlet principal per a la simulaci del sistema solar.
- * Gestiona les peticions GET per actualitzar l'estat de la simulaci
- * i retornar les dades dels cossos celestes en format JSON.
+ * Gestiona les peticions GET que retornen l'ltim estat calculat pel SimulationTicker
+ * amb les dades dels cossos celestes en format JSON. El JSON s'escriu directament a la
+ * resposta a partir del fotograma, sense mapes intermedis.
+ * Si la petici indica la mida de la pantalla (width i height), noms s'envien els cossos
+ * visibles i els grups de cossos ms petits que un pxel s'envien com un sol punt agregat.
+ * Amb view=world la resposta noms t coordenades del mn: s igual per a tots els clients
+ * que miren la simulaci, es serialitza un sol cop per pas (FrameCache) i admet GET condicional.
+ * Amb since=<tick> (i simulation=<id>) la petici s de long-poll: espera, sense ocupar cap fil,
+ * fins que hi ha un fotograma posterior a aquest tick.
+ * Cada client t la seva simulaci i el seu viewport al SimulationRegistry.
  */
-@WebServlet("/api/simulation")
+@WebServlet(urlPatterns = "/api/simulation", asyncSupported = true)
 public class SimulationServlet extends HttpServlet {
-    private ViewportController viewport;
-    private final Gson gson = new Gson();
-    
-    /**
-     * Inicialitza el servlet creant un nou ViewportController.
-     */
-    @Override
-    public void init() throws ServletException {
-        try {
-            // Inicialitza el viewport amb una mida per defecte (800x600)
-            this.viewport = new ViewportController(800, 600);
-        } catch (Exception e) {
-            throw new ServletException("Error en la inicialitzaci del ViewportController", e);
-        }
-    }
+    private static final double CULL_MARGIN_PIXELS = 64;  // Marge per als radis i les etiquetes
+    private static final int MAX_SCREEN_SIZE = 16384;
 
     /**
-     * Processa les peticions per actualitzar i obtenir l'estat de la simulaci.
+     * Processa les peticions per obtenir l'estat de la simulaci.
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) 
@@ -44,37 +41,243 @@ public class SimulationServlet extends HttpServlet {
         resp.setHeader("Access-Control-Allow-Origin", "*");
         resp.setContentType("application/json");
         
+        SimulationRegistry.Entry simulation;
         try {
-            // Obtenim l'estat de la simulaci
-            SimulationState state = (SimulationState) getServletContext().getAttribute("simulationState");
-            if (state == null) {
-                throw new IllegalStateException("L'estat de la simulaci no s'ha inicialitzat.");
-            }
+            // Obtenim la simulaci i el viewport d'aquest client
+            simulation = SimulationRegistry.from(getServletContext()).resolve(req);
+            SimulationState state = simulation.getState();
 
             // Processa els canvis en el viewport 
-            handleViewportChanges(req);
+            handleViewportChanges(req, simulation.getViewport());
             
-            // Actualitza la simulaci
-            double timeScale = parseTimeScale(req);
-            PhysicsEngine.update(state.getBodies(), timeScale * 200);
+            // L'escala de temps noms es desa: la simulaci l'avana el SimulationTicker
+            if (req.getParameter("scale") != null) {
+                state.setTimeScale(parseTimeScale(req));
+            }
            
-            // Prepara la resposta JSON
-            Map<String, Object> response = new HashMap<>();
-            response.put("scale", viewport.getCurrentScale());
-            response.put("bodies", prepareBodyData(state.getBodies()));
-            
-            resp.getWriter().write(gson.toJson(response));
+            // Long-poll: si el client ja t l'ltim fotograma, la petici espera el segent
+            // en mode asncron, sense ocupar cap fil del contenidor
+            if (hasLatestFrame(req, state)) {
+                AsyncContext async = req.startAsync();
+                LongPollHub.from(getServletContext()).park(async, simulation, state,
+                        Long.parseLong(req.getParameter("since")),
+                        () -> writeFrame(req, resp, simulation));
+                return;
+            }
+        } catch (Exception e) {
+            writeError(resp, e);
+            return;
+        }
+
+        writeFrame(req, resp, simulation);
+    }
+
+    /**
+     * Indica si el client del long-poll ja t l'ltim fotograma: el parmetre "since" s el tick
+     * que t i "simulation" (opcional) l'identificador de la simulaci d'on l'ha rebut, perqu
+     * una simulaci nova, que torna a comenar pel tick 0, no el faci esperar.
+     */
+    private static boolean hasLatestFrame(HttpServletRequest req, SimulationState state) {
+        String since = req.getParameter("since");
+        if (since == null) return false;
+        String simulationId = req.getParameter("simulation");
+        if (simulationId != null && Long.parseLong(simulationId) != state.getInstanceId()) return false;
+        return state.getTick() <= Long.parseLong(since);
+    }
+
+    /**
+     * Escriu l'ltim fotograma publicat en el format demanat. Es crida des del fil de la
+     * petici o, en el long-poll, des de l'executor del LongPollHub.
+     */
+    private void writeFrame(HttpServletRequest req, HttpServletResponse resp,
+            SimulationRegistry.Entry simulation) {
+        ViewportController viewport = simulation.getViewport();
+        try {
+            SimulationState state = simulation.getState();
+            if ("world".equals(req.getParameter("view"))) {
+                writeWorldView(req, resp, state, viewport);
+                return;
+            }
+
+            if (BinaryFrameEncoder.isRequested(req)) {
+                writeBinaryFrame(req, resp, simulation, state);
+                return;
+            }
+           
+            // Escriu la resposta JSON a partir de l'ltim fotograma publicat
+            SimulationFrame frame = state.acquireFrame();
+            try {
+                // Es comprova abans d'escriure res: un error a mig fotograma deixaria el JSON trencat
+                requireFinitePositions(frame);
+                JsonWriter json = new JsonWriter(resp.getWriter());
+                json.setHtmlSafe(true);  // Mateix escapament que Gson
+                json.setSerializeNulls(false);  // Com Gson, els camps null (un cos sense color) s'ometen
+                json.beginObject();
+                json.name("scale").value(viewport.getCurrentScale());
+                json.name("tick").value(frame.getTick());
+                json.name("epoch").value(frame.getStructureEpoch());
+                json.name("simulation").value(state.getInstanceId());
+                if (state.getIntegrator() == Integrator.BLOCK_LEAPFROG) {
+                    json.name("forceEvaluationsSavedPerYear")
+                        .value(state.getBlockScheduler().getEvaluationsSavedPerYear());
+                }
+                if (hasScreenSize(req)) {
+                    json.name("totalBodies").value(frame.size());
+                    json.name("bodies");
+                    writeVisibleBodyData(json, frame, viewport);
+                } else {
+                    json.name("bodies");
+                    writeBodyData(json, frame, viewport);
+                }
+                json.endObject();
+                json.flush();
+            } finally {
+                frame.release();
+            }
             
         } catch (Exception e) {
+            writeError(resp, e);
+        }
+    }
+
+    /**
+     * Respon amb un error en format JSON. El que s'hagus escrit del fotograma i encara sigui
+     * al buffer es descarta; si part de la resposta ja s'ha enviat, no s'hi afegeix res perqu
+     * el client no rebi un document barrejat.
+     */
+    private static void writeError(HttpServletResponse resp, Exception e) {
+        if (resp.isCommitted()) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            resp.resetBuffer();
             resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.getWriter().write("{\"error\":\"" + e.getMessage() + "\"}");
+            JsonWriter json = new JsonWriter(resp.getWriter());
+            json.beginObject().name("error").value(String.valueOf(e.getMessage())).endObject();
+            json.flush();
+        } catch (IOException | IllegalStateException ignored) {
+            // El client ha tancat la connexi o la resposta s'ha enviat mentrestant
+        }
+    }
+
+    /**
+     * Comprova que totes les posicions del fotograma es poden escriure en JSON.
+     * @throws IllegalStateException Si n'hi ha alguna que no s finita
+     */
+    private static void requireFinitePositions(SimulationFrame frame) {
+        for (int i = 0; i < frame.size(); i++) {
+            if (!Double.isFinite(frame.getX(i)) || !Double.isFinite(frame.getY(i))) {
+                throw new IllegalStateException("La posici de " + frame.getName(i) + " no s finita");
+            }
         }
     }
     
+    /**
+     * Respon amb el fotograma en coordenades del mn (JSON o binari complet), compartit entre
+     * tots els clients des de la FrameCache. L'ETag identifica la simulaci, l'poca i el tick:
+     * si el client ja t aquest fotograma (If-None-Match) es respon 304 sense cos.
+     * L'escala del viewport del client, que no forma part del cos compartit, va a la capalera
+     * X-Viewport-Scale.
+     */
+    private void writeWorldView(HttpServletRequest req, HttpServletResponse resp,
+            SimulationState state, ViewportController viewport) throws IOException {
+        boolean binary = BinaryFrameEncoder.isRequested(req);
+        SimulationFrame frame = state.acquireFrame();
+        try {
+            String key = FrameCache.key(state.getInstanceId(), frame.getStructureEpoch(),
+                    frame.getTick(), binary ? "bin" : "json");
+            String etag = "\"" + key + "\"";
+            resp.setHeader("ETag", etag);
+            resp.setHeader("Cache-Control", "no-cache");
+            resp.setHeader("X-Viewport-Scale", String.valueOf(viewport.getCurrentScale()));
+            resp.setHeader("Access-Control-Expose-Headers", "ETag, X-Viewport-Scale");
+            if (matchesETag(req.getHeader("If-None-Match"), etag)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            byte[] body = FrameCache.from(getServletContext()).get(key, binary
+                    ? () -> BinaryFrameEncoder.encodeKeyframe(frame, 0)
+                    : () -> encodeWorldJson(state, frame));
+            resp.setContentType(binary ? BinaryFrameEncoder.CONTENT_TYPE : "application/json;charset=UTF-8");
+            resp.setContentLength(body.length);
+            resp.getOutputStream().write(body);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Serialitza el fotograma sense cap dada del viewport.
+     */
+    private static byte[] encodeWorldJson(SimulationState state, SimulationFrame frame) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + frame.size() * 96);
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+        json.setHtmlSafe(true);
+        json.setSerializeNulls(false);
+        json.beginObject();
+        json.name("tick").value(frame.getTick());
+        json.name("epoch").value(frame.getStructureEpoch());
+        if (state.getIntegrator() == Integrator.BLOCK_LEAPFROG) {
+            json.name("forceEvaluationsSavedPerYear")
+                .value(state.getBlockScheduler().getEvaluationsSavedPerYear());
+        }
+        json.name("bodies").beginArray();
+        for (int i = 0; i < frame.size(); i++) {
+            json.beginObject();
+            json.name("name").value(frame.getName(i));
+            json.name("worldX").value(frame.getX(i));
+            json.name("worldY").value(frame.getY(i));
+            json.name("radius").value(frame.getRadius(i));
+            json.name("color").value(frame.getColor(i));
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Comprova si la capalera If-None-Match inclou l'ETag indicat (o s "*").
+     */
+    private static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Respon amb el fotograma en format binari, com a delta respecte al tick indicat
+     * al parmetre "ack" si el client el t (vegeu BinaryFrameEncoder).
+     */
+    private void writeBinaryFrame(HttpServletRequest req, HttpServletResponse resp,
+            SimulationRegistry.Entry simulation, SimulationState state) throws IOException {
+        String ack = req.getParameter("ack");
+        long ackTick = ack == null ? -1 : Long.parseLong(ack);
+
+        byte[] body;
+        SimulationFrame frame = state.acquireFrame();
+        try {
+            body = BinaryFrameEncoder.encode(frame, simulation.getViewport().getCurrentScale(),
+                    ackTick, simulation.getFrameHistory());
+        } finally {
+            frame.release();
+        }
+        resp.setContentType(BinaryFrameEncoder.CONTENT_TYPE);
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
     /**
      * Gestiona els canvis en el viewport basats en els parmetres de la petici.
      */
-    private void handleViewportChanges(HttpServletRequest req) {
+    private void handleViewportChanges(HttpServletRequest req, ViewportController viewport) {
         // Processa moviment del viewport
         if (req.getParameter("moveX") != null) {
             viewport.move(
@@ -83,6 +286,16 @@ public class SimulationServlet extends HttpServlet {
             );
         }
         
+        // Mida de la pantalla del client (per retallar els cossos no visibles)
+        if (hasScreenSize(req)) {
+            int width = Integer.parseInt(req.getParameter("width"));
+            int height = Integer.parseInt(req.getParameter("height"));
+            if (width <= 0 || height <= 0 || width > MAX_SCREEN_SIZE || height > MAX_SCREEN_SIZE) {
+                throw new IllegalArgumentException("Mida de pantalla no vlida");
+            }
+            viewport.resize(width, height);
+        }
+        
         // Processa zoom in/out
         if ("in".equals(req.getParameter("zoom"))) viewport.zoomIn();
         if ("out".equals(req.getParameter("zoom"))) viewport.zoomOut();
@@ -103,30 +316,76 @@ public class SimulationServlet extends HttpServlet {
     }
     
     /**
-     * Prepara les dades dels cossos celestes per a la resposta JSON.
+     * Escriu les dades dels cossos celestes com a array JSON.
      */
-    private List<Map<String, Object>> prepareBodyData(List<CelestialBody> bodies) {
-        List<Map<String, Object>> bodyData = new ArrayList<>();
-        
-        for (CelestialBody body : bodies) {
-            Map<String, Object> data = new HashMap<>();
-            
-            // Calcula posici en pantalla
-            Map<String, Double> screenPos = viewport.calculateScreenPosition(
-                body.getX(), body.getY()
-            );
+    private void writeBodyData(JsonWriter json, SimulationFrame frame, ViewportController viewport)
+            throws IOException {
+        double[] screenPos = new double[2];
+        json.beginArray();
+        for (int i = 0; i < frame.size(); i++) {
+            writeBody(json, frame, viewport, i, screenPos);
+        }
+        json.endArray();
+    }
+    
+    /**
+     * Escriu noms els cossos que cauen dins de la pantalla del client. Els grups de cossos
+     * que ocupen menys d'un pxel s'escriuen com un sol punt amb el camp "aggregate"
+     * (nombre de cossos) i el color del cos ms massiu del grup.
+     */
+    private void writeVisibleBodyData(JsonWriter json, SimulationFrame frame, ViewportController viewport)
+            throws IOException {
+        double[] region = new double[4];
+        viewport.calculateVisibleRegion(CULL_MARGIN_PIXELS, region);
+        double[] screenPos = new double[2];
+        json.beginArray();
+        frame.visitRegion(region[0], region[1], region[2], region[3], viewport.getMetersPerPixel(),
+                new SimulationFrame.RegionVisitor() {
+            @Override
+            public void body(int i) throws IOException {
+                writeBody(json, frame, viewport, i, screenPos);
+            }
 
-            data.put("name", body.getName());
-            data.put("screenX", screenPos.get("x"));
-            data.put("screenY", screenPos.get("y"));
-            data.put("worldX", body.getX());
-            data.put("worldY", body.getY());
-            data.put("radius", body.getRadius());
-            data.put("color", body.getColor());
+            @Override
+            public void aggregate(int count, double mass, double x, double y, int representative)
+                    throws IOException {
+                viewport.calculateScreenPosition(x, y, screenPos);
+                json.beginObject();
+                json.name("name").value("");
+                json.name("aggregate").value(count);
+                json.name("screenX").value(screenPos[0]);
+                json.name("screenY").value(screenPos[1]);
+                json.name("worldX").value(x);
+                json.name("worldY").value(y);
+                json.name("radius").value(1);
+                json.name("color").value(frame.getColor(representative));
+                json.endObject();
+            }
+        });
+        json.endArray();
+    }
+    
+    /**
+     * Escriu un cos com a objecte JSON.
+     * @param screenPos Buffer de treball per a la posici en pantalla
+     */
+    private void writeBody(JsonWriter json, SimulationFrame frame, ViewportController viewport,
+            int i, double[] screenPos) throws IOException {
+        // Calcula posici en pantalla
+        viewport.calculateScreenPosition(frame.getX(i), frame.getY(i), screenPos);
 
-            bodyData.add(data);
-        }
-        
-        return bodyData;
+        json.beginObject();
+        json.name("name").value(frame.getName(i));
+        json.name("screenX").value(screenPos[0]);
+        json.name("screenY").value(screenPos[1]);
+        json.name("worldX").value(frame.getX(i));
+        json.name("worldY").value(frame.getY(i));
+        json.name("radius").value(frame.getRadius(i));
+        json.name("color").value(frame.getColor(i));
+        json.endObject();
+    }
+    
+    private static boolean hasScreenSize(HttpServletRequest req) {
+        return req.getParameter("width") != null && req.getParameter("height") != null;
     }
 }
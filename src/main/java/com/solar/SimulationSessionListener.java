@@ -0,0 +1,21 @@
+package com.solar;
+
+import javax.servlet.annotation.WebListener;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+/**
+ * Allibera la simulaci d'un client quan caduca la seva sessi HTTP.
+ */
+@WebListener
+public class SimulationSessionListener implements HttpSessionListener {
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        SimulationRegistry registry = (SimulationRegistry) se.getSession().getServletContext()
+                .getAttribute(SimulationRegistry.ATTRIBUTE);
+        if (registry != null) {
+            registry.remove(se.getSession().getId());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.solar;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fil de simulaci que avana l'estat a un ritme fix, independent de les peticions HTTP.
+ * Aix el nombre de navegadors connectats no canvia la velocitat de la simulaci
+ * i les peticions GET noms han de llegir l'ltim fotograma publicat.
+ * Avana totes les simulacions actives del registre i, un cop per segon, hi fa el manteniment
+ * (hibernaci de les inactives i lmits de memria).
+ * Desprs de cada pas avisa els oients registrats (per exemple, el long-poll).
+ */
+public class SimulationTicker {
+    private static final double SPEED_FACTOR = 200; // Multiplicador de l'escala de temps de la interfcie
+
+    private final SimulationRegistry registry;
+    private final int tickRate;
+    private final ScheduledExecutorService scheduler;
+    private final List<Runnable> tickListeners = new CopyOnWriteArrayList<>();
+    private long ticks;
+
+    /**
+     * Crea el fil de simulaci.
+     * @param registry Registre amb les simulacions a avanar
+     * @param tickRate Passos de simulaci per segon
+     */
+    public SimulationTicker(SimulationRegistry registry, int tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("La freqncia de simulaci ha de ser positiva");
+        }
+        this.registry = registry;
+        this.tickRate = tickRate;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "simulation-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Comena a avanar la simulaci a la freqncia configurada.
+     */
+    public void start() {
+        long period = TimeUnit.SECONDS.toNanos(1) / tickRate;
+        scheduler.scheduleAtFixedRate(this::tick, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Atura el fil de simulaci i espera que acabi el pas en curs.
+     */
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Registra un oient que es crida des del fil de simulaci desprs de cada pas,
+     * quan ja s'han publicat els fotogrames nous. Ha de ser rpid i no bloquejar.
+     */
+    public void addTickListener(Runnable listener) {
+        tickListeners.add(listener);
+    }
+
+    /** Retorna el nombre de passos de simulaci per segon. */
+    public int getTickRate() { return tickRate; }
+
+    /**
+     * Avana un pas les simulacions actives. Les excepcions es capturen perqu un pas
+     * erroni no aturi les execucions segents.
+     */
+    private void tick() {
+        try {
+            registry.advanceAll(SPEED_FACTOR);
+            for (Runnable listener : tickListeners) {
+                listener.run();
+            }
+            if (++ticks % tickRate == 0) {
+                registry.maintain();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import javax.servlet.annotation.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -43,9 +44,19 @@ public class StartSimulationServlet extends HttpServlet {
             
             // 4. Crea i inicialitza l'estat de la simulaci
             SimulationState newState = initializeSimulationState(selectedPlanets);
+            configureForceSolver(req, newState);
+            newState.setIntegrator(Integrator.parse(req.getParameter("integrator")));
+            String perturbed = req.getParameter("perturbed");
+            if (perturbed != null) {
+                newState.setPerturbedBodies(Arrays.asList(perturbed.trim().split("\\s*,\\s*")));
+            }
+            if (req.getParameter("eta") != null) {
+                newState.getBlockScheduler().setEta(Double.parseDouble(req.getParameter("eta")));
+            }
+            configureCollisions(req, newState);
             
-            // 5. Desa l'estat al context del servlet
-            getServletContext().setAttribute("simulationState", newState);
+            // 5. Substitueix noms la simulaci d'aquest client
+            SimulationRegistry.from(getServletContext()).replace(req, newState);
             
             // 6. Respon amb xit
             sendSuccessResponse(resp);
@@ -93,6 +104,32 @@ public class StartSimulationServlet extends HttpServlet {
         return newState;
     }
 
+    /**
+     * Aplica el mtode de clcul de forces indicat als parmetres "solver" i "theta".
+     */
+    private void configureForceSolver(HttpServletRequest req, SimulationState state) {
+        state.setForceSolver(ForceSolver.parse(req.getParameter("solver")));
+        String theta = req.getParameter("theta");
+        if (theta != null) {
+            state.setTheta(Double.parseDouble(theta));
+        }
+    }
+
+    /**
+     * Aplica els parmetres de collisi: "collisions" (true/false) i "collisionScale"
+     * (metres de radi de collisi per pxel de radi de pantalla).
+     */
+    private void configureCollisions(HttpServletRequest req, SimulationState state) {
+        String collisions = req.getParameter("collisions");
+        if (collisions != null) {
+            state.setCollisionsEnabled(Boolean.parseBoolean(collisions));
+        }
+        String scale = req.getParameter("collisionScale");
+        if (scale != null) {
+            state.getCollisionDetector().setMetersPerPixel(Double.parseDouble(scale));
+        }
+    }
+
     /**
      * Envia resposta d'xit al client.
      */
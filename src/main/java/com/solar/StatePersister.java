@@ -0,0 +1,206 @@
+package com.solar;
+
+import com.solar.model.SimulationFrame;
+import com.solar.model.SimulationState;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Escriptura diferida de l'estat de les simulacions a la base de dades (write-behind).
+ * SimulationState.saveState() noms marca la simulaci com a pendent; un fil propi escriu
+ * l'estat a intervals fixos, de manera que ni el fil de simulaci ni la petici esperen la
+ * base de dades. Totes les simulacions escriuen a les mateixes files (una per nom de cos),
+ * aix que si es demanen diversos desaments dins d'un mateix interval noms s'escriu l'ltim.
+ *
+ * Si s'ha definit una font (vegeu setSource), a cada interval sense desaments demanats es
+ * desa la simulaci que retorna (un punt de control peridic), sempre que hagi avanat
+ * des de l'ltim punt de control.
+ *
+ * L'estat es copia de l'ltim fotograma publicat (coherent i sense bloquejar la simulaci)
+ * i s'escriu en una sola transacci amb lots (vegeu DbManager.savePositions).
+ * En aturar l'aplicaci s'escriu el que quedi pendent.
+ */
+public class StatePersister {
+    /** Nom de l'atribut del ServletContext on es desa el persistidor. */
+    public static final String ATTRIBUTE = "statePersister";
+
+    private static volatile StatePersister installed;
+
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicReference<SimulationState> pending = new AtomicReference<>();
+    private final Object writeLock = new Object();   // Una sola escriptura alhora (interval o aturada)
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Supplier<SimulationState> source;
+    private SimulationState lastCheckpoint;          // Noms amb writeLock
+    private long lastCheckpointTick = -1;
+
+    // Cpia de l'ltim fotograma a escriure; es reutilitza entre escriptures
+    private String[] names = new String[0];
+    private double[] x = new double[0], y = new double[0];
+    private double[] vx = new double[0], vy = new double[0];
+
+    /**
+     * Crea el persistidor.
+     * @param intervalMillis Temps entre dues escriptures, en millisegons
+     */
+    public StatePersister(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("L'interval d'escriptura ha de ser positiu");
+        }
+        this.intervalMillis = intervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-persister");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Defineix el persistidor que fa servir SimulationState.saveState() (null = escriptura immediata).
+     */
+    public static void install(StatePersister persister) {
+        installed = persister;
+    }
+
+    /**
+     * Retorna el persistidor installat, o null si no n'hi ha cap.
+     */
+    public static StatePersister installed() {
+        return installed;
+    }
+
+    /**
+     * Comena a escriure els desaments pendents (o els punts de control) a l'interval configurat.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Defineix la simulaci que es desa a cada interval si no s'ha demanat cap desament
+     * (per exemple, la usada ms recentment). La font pot retornar null; null = cap punt de control.
+     */
+    public void setSource(Supplier<SimulationState> source) {
+        this.source = source;
+    }
+
+    /**
+     * Marca una simulaci per desar-la a la propera escriptura. Substitueix la pendent, si n'hi ha.
+     */
+    public void schedule(SimulationState state) {
+        requests.incrementAndGet();
+        pending.set(state);
+    }
+
+    /**
+     * Escriu ara el desament pendent, si n'hi ha. Si falla, queda pendent per a la propera escriptura
+     * (llevat que mentrestant se n'hagi demanat un altre).
+     * @throws SQLException Si falla l'escriptura
+     */
+    public void flush() throws SQLException {
+        synchronized (writeLock) {
+            SimulationState state = pending.getAndSet(null);
+            if (state == null) return;
+            long tick = state.getTick();
+            int n = copyLatestFrame(state);
+            try {
+                DbManager.savePositions(names, x, y, vx, vy, n);
+                writes.incrementAndGet();
+                lastCheckpoint = state;
+                lastCheckpointTick = tick;
+            } catch (SQLException e) {
+                failures.incrementAndGet();
+                pending.compareAndSet(null, state);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Escriu el desament pendent o, si no n'hi ha, un punt de control de la simulaci de la font.
+     * @throws SQLException Si falla l'escriptura
+     */
+    public void checkpoint() throws SQLException {
+        synchronized (writeLock) {
+            Supplier<SimulationState> source = this.source;
+            if (pending.get() == null && source != null) {
+                SimulationState state = source.get();
+                // Una simulaci que no ha avanat (hibernada) no cal tornar-la a escriure
+                if (state != null && (state != lastCheckpoint || state.getTick() != lastCheckpointTick)) {
+                    pending.compareAndSet(null, state);
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Atura les escriptures peridiques i escriu el que quedi pendent (o un ltim punt de control).
+     */
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpointQuietly();
+    }
+
+    /** Retorna quants desaments s'han demanat. */
+    public long getRequestCount() { return requests.get(); }
+
+    /** Retorna quantes escriptures s'han fet (els desaments agrupats compten com una). */
+    public long getWriteCount() { return writes.get(); }
+
+    /** Retorna quantes escriptures han fallat. */
+    public long getFailureCount() { return failures.get(); }
+
+    /** Indica si hi ha un desament pendent d'escriure. */
+    public boolean hasPending() { return pending.get() != null; }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copia els noms, posicions i velocitats de l'ltim fotograma publicat i l'allibera de seguida.
+     * @return Nombre de cossos copiats
+     */
+    private int copyLatestFrame(SimulationState state) {
+        SimulationFrame frame = state.acquireFrame();
+        try {
+            int n = frame.size();
+            if (names.length < n) {
+                names = new String[n];
+                x = new double[n];
+                y = new double[n];
+                vx = new double[n];
+                vy = new double[n];
+            }
+            for (int i = 0; i < n; i++) {
+                names[i] = frame.getName(i);
+                x[i] = frame.getX(i);
+                y[i] = frame.getY(i);
+                vx[i] = frame.getVx(i);
+                vy[i] = frame.getVy(i);
+            }
+            return n;
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.solar;
+
+import com.google.gson.stream.JsonWriter;
+import com.solar.model.SimulationState;
+import com.solar.model.TrailHistory;
+
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.*;
+import javax.servlet.http.*;
+import javax.servlet.annotation.*;
+
+/**
+ * Servlet que retorna les traces orbitals dels cossos massius.
+ * Accepta el parmetre "points" (punts mxims per traa, per defecte 200): l'historial
+ * es redueix a aquest nombre de punts repartits entre la posici ms antiga i la ms recent.
+ */
+@WebServlet("/api/simulation/trails")
+public class TrailsServlet extends HttpServlet {
+    private static final int DEFAULT_POINTS = 200;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setHeader("Access-Control-Allow-Origin", "*");
+        resp.setContentType("application/json");
+
+        List<TrailHistory.Trail> trails;
+        SimulationState state;
+        try {
+            state = SimulationRegistry.from(getServletContext()).resolve(req).getState();
+            trails = state.getTrailHistory().getTrails(parsePoints(req));
+        } catch (Exception e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resp.getWriter().write("{\"error\":\"" + e.getMessage() + "\"}");
+            return;
+        }
+
+        JsonWriter json = new JsonWriter(resp.getWriter());
+        json.setHtmlSafe(true);
+        json.beginObject();
+        json.name("tick").value(state.getTick());
+        json.name("stride").value(state.getTrailHistory().getStride());
+        json.name("trails").beginArray();
+        for (TrailHistory.Trail trail : trails) {
+            json.beginObject();
+            json.name("name").value(trail.getName());
+            json.name("x").beginArray();
+            for (int k = 0; k < trail.size(); k++) json.value(trail.getX(k));
+            json.endArray();
+            json.name("y").beginArray();
+            for (int k = 0; k < trail.size(); k++) json.value(trail.getY(k));
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Llegeix el nombre de punts per traa (com a mxim la capacitat de l'historial).
+     */
+    private static int parsePoints(HttpServletRequest req) {
+        String param = req.getParameter("points");
+        int points = param == null ? DEFAULT_POINTS : Integer.parseInt(param);
+        if (points < 2) {
+            throw new IllegalArgumentException("Cal demanar almenys 2 punts per traa");
+        }
+        return points;
+    }
+}
@@ -10,9 +10,14 @@ import java.util.HashMap;
 public class ViewportController {
     private double centerX;          // Coordenada X del centre de la vista (pxels)
     private double centerY;          // Coordenada Y del centre de la vista (pxels)
-    private double currentScale = 100;  // Escala actual de zoom (%)
+    private double currentScale = 100;  // Escala actual de zoom (%), a l'instant updatedAt
     private double targetScale = 100;   // Escala objectiu de zoom (per animacions suaus)
+    private long updatedAt = System.nanoTime();
+    private int screenWidth;         // Amplada de la pantalla del client (pxels)
+    private int screenHeight;        // Alada de la pantalla del client (pxels)
     private final double AU_TO_PIXELS = 1.496e11;  // Conversi d'Unitats Astronmiques (UA) a pxels
+    private static final double EASING = 0.1;                   // Fracci del cam per fotograma de referncia
+    private static final double EASING_FRAME_NANOS = 1e9 / 30;  // Fotograma de referncia de l'animaci
 
     /**
      * Constructor que inicialitza el viewport amb les dimensions de la pantalla.
@@ -29,19 +34,51 @@ public class ViewportController {
      * @param height Alada actual de la pantalla.
      */
     public synchronized void resetViewport(int width, int height) {
+        this.screenWidth = width;
+        this.screenHeight = height;
         this.centerX = width / 2.0;
         this.centerY = height / 2.0;
         this.currentScale = 100;
         this.targetScale = 100;
+        this.updatedAt = System.nanoTime();
     }
     
     /**
-     * Actualitza l'estat del viewport (per animacions de zoom suaus).
-     * Aplica un factor d'alleujament (easing) del 10% per cada actualitzaci.
+     * Canvia la mida de la pantalla. Si s diferent de l'anterior, torna a centrar la vista
+     * (igual que fa el client quan redimensiona el canvas) per conserva el zoom.
+     * @param width Nova amplada de la pantalla.
+     * @param height Nova alada de la pantalla.
+     */
+    public synchronized void resize(int width, int height) {
+        if (width == screenWidth && height == screenHeight) return;
+        this.screenWidth = width;
+        this.screenHeight = height;
+        this.centerX = width / 2.0;
+        this.centerY = height / 2.0;
+    }
+    
+    /**
+     * Actualitza l'estat del viewport (per animacions de zoom suaus): fixa l'escala actual
+     * segons el temps transcorregut. L'alleujament (easing) s del 10% per cada fotograma de
+     * referncia (1/30 s), de manera que la velocitat no depn de quantes vegades es cridi.
      */
     public synchronized void update() {
-        // Animaci de zoom suau (factor d'alleujament 0.1)
-        this.currentScale += (targetScale - currentScale) * 0.1;
+        long now = System.nanoTime();
+        this.currentScale = scaleAt(now);
+        this.updatedAt = now;
+    }
+
+    /**
+     * Retorna l'escala de l'animaci de zoom en aquest moment sense modificar el viewport
+     * (per als fotogrames que s'envien sense cap petici del client).
+     */
+    public synchronized double getAnimatedScale() {
+        return scaleAt(System.nanoTime());
+    }
+
+    private double scaleAt(long now) {
+        double frames = (now - updatedAt) / EASING_FRAME_NANOS;
+        return targetScale + (currentScale - targetScale) * Math.pow(1 - EASING, frames);
     }
     
     /**
@@ -55,6 +92,33 @@ public class ViewportController {
         double screenY = centerY + (worldY / AU_TO_PIXELS * currentScale);
         return Map.of("x", screenX, "y", screenY);
     }
+
+    /**
+     * Variant de calculateScreenPosition que no crea cap objecte, per convertir molts cossos.
+     * @param worldX Posici X en Unitats Astronmiques (UA).
+     * @param worldY Posici Y en Unitats Astronmiques (UA).
+     * @param out Buffer del qui crida on s'escriuen les coordenades de pantalla: out[0] = x, out[1] = y.
+     */
+    public void calculateScreenPosition(double worldX, double worldY, double[] out) {
+        out[0] = centerX + (worldX / AU_TO_PIXELS * currentScale);
+        out[1] = centerY + (worldY / AU_TO_PIXELS * currentScale);
+    }
+    
+    /**
+     * Calcula la regi del mn visible a la pantalla.
+     * @param marginPixels Marge afegit a cada costat de la pantalla (radis i etiquetes).
+     * @param out Buffer on s'escriu la regi en metres: minX, minY, maxX, maxY.
+     */
+    public synchronized void calculateVisibleRegion(double marginPixels, double[] out) {
+        double metersPerPixel = getMetersPerPixel();
+        out[0] = (-marginPixels - centerX) * metersPerPixel;
+        out[1] = (-marginPixels - centerY) * metersPerPixel;
+        out[2] = (screenWidth + marginPixels - centerX) * metersPerPixel;
+        out[3] = (screenHeight + marginPixels - centerY) * metersPerPixel;
+    }
+    
+    /** Retorna quants metres del mn ocupa un pxel a l'escala actual. */
+    public double getMetersPerPixel() { return AU_TO_PIXELS / currentScale; }
     
     // --- Controles de moviment ---
     
@@ -69,16 +133,28 @@ public class ViewportController {
     }
     
     /** Augmenta el zoom (un 20% per cada crida). */
-    public synchronized void zoomIn() { this.targetScale *= 1.2; }
+    public synchronized void zoomIn() {
+        update();  // L'animaci continua des de l'escala d'ara cap a l'objectiu nou
+        this.targetScale *= 1.2;
+    }
     
     /** Disminueix el zoom (un 20% per cada crida). */
-    public synchronized void zoomOut() { this.targetScale /= 1.2; }
+    public synchronized void zoomOut() {
+        update();
+        this.targetScale /= 1.2;
+    }
     
     // --- Getters ---
     
     /** Retorna l'escala actual de zoom. */
     public double getCurrentScale() { return currentScale; }
     
+    /** Retorna l'amplada de la pantalla (pxels). */
+    public int getScreenWidth() { return screenWidth; }
+    
+    /** Retorna l'alada de la pantalla (pxels). */
+    public int getScreenHeight() { return screenHeight; }
+    
     /** Retorna les coordenades del centre de la vista [x, y]. */
     public double[] getCenter() { return new double[]{centerX, centerY}; }
 }
\ No newline at end of file
@@ -0,0 +1,320 @@
+package com.solar.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Magatzem de cossos celestes en format d'estructura d'arrays (SoA).
+ * Les posicions, velocitats i masses es guarden en arrays primitius contigus perqu el bucle
+ * de fsica recorri la memria de manera seqencial i no generi objectes a cada pas.
+ * Els objectes CelestialBody que fan servir els servlets sn vistes sobre aquest magatzem.
+ */
+public class BodyStore {
+    private int size;
+
+    // Estat dinmic (el que modifica el motor fsic)
+    private double[] x, y;
+    private double[] vx, vy;
+    private double[] mass;
+    private boolean[] particle;            // Partcules de prova: senten la gravetat per no n'exerceixen
+
+    // Buffers reutilitzables per a les acceleracions de cada pas
+    private double[] ax, ay;
+    private boolean accelerationsCurrent;  // Cert si ax/ay corresponen a les posicions actuals
+    private long structureVersion;         // Canvia cada cop que s'afegeixen o es modifiquen cossos
+
+    // Partici entre cossos massius i partcules (es recalcula quan canvia structureVersion)
+    private int[] massiveIndices = new int[0];
+    private int[] particleIndices = new int[0];
+    private int massiveCount, particleCount;
+    private long partitionVersion = -1;
+
+    // Dades descriptives de cada cos
+    private String[] name;
+    private String[] color;
+    private int[] radius;
+    private double[] semiMajorAxis;
+    private double[] eccentricity;
+
+    // ndexs dels cossos per nom en minscules, per a les edicions; es construeix quan cal
+    // i es descarta quan s'eliminen cossos (null = s'ha de reconstruir)
+    private Map<String, int[]> nameIndex;
+
+    /**
+     * Crea un magatzem buit amb la capacitat indicada.
+     * @param capacity Nombre de cossos que es poden afegir sense redimensionar
+     */
+    public BodyStore(int capacity) {
+        int c = Math.max(capacity, 1);
+        x = new double[c];
+        y = new double[c];
+        vx = new double[c];
+        vy = new double[c];
+        mass = new double[c];
+        particle = new boolean[c];
+        ax = new double[c];
+        ay = new double[c];
+        name = new String[c];
+        color = new String[c];
+        radius = new int[c];
+        semiMajorAxis = new double[c];
+        eccentricity = new double[c];
+    }
+
+    /**
+     * Crea un magatzem amb una cpia de les dades dels cossos indicats.
+     * @param bodies Cossos d'origen (no es modifiquen)
+     * @return Nou magatzem amb els cossos en el mateix ordre
+     */
+    public static BodyStore of(List<CelestialBody> bodies) {
+        BodyStore store = new BodyStore(bodies.size());
+        for (CelestialBody body : bodies) {
+            store.add(body);
+        }
+        return store;
+    }
+
+    /**
+     * Afegeix un cos al final del magatzem copiant-ne les dades.
+     * @param body Cos a afegir
+     * @return ndex del cos dins del magatzem
+     */
+    public int add(CelestialBody body) {
+        if (size == x.length) resize(size * 2);
+        int i = size++;
+        x[i] = body.getX();
+        y[i] = body.getY();
+        vx[i] = body.getVx();
+        vy[i] = body.getVy();
+        mass[i] = body.getMass();
+        particle[i] = body.isParticle() || body.getMass() == 0;
+        ax[i] = 0;
+        ay[i] = 0;
+        name[i] = body.getName();
+        color[i] = body.getColor();
+        radius[i] = body.getRadius();
+        semiMajorAxis[i] = body.getSemiMajorAxis();
+        eccentricity[i] = body.getEccentricity();
+        accelerationsCurrent = false;
+        structureVersion++;
+        if (nameIndex != null) {
+            nameIndex.merge(nameKey(name[i]), new int[] { i }, BodyStore::append);
+        }
+        return i;
+    }
+
+    /**
+     * Elimina els cossos indicats compactant els arrays i conservant l'ordre de la resta.
+     * Si el magatzem queda molt buit, els arrays es redueixen.
+     * @param indices ndexs a eliminar, en ordre creixent i sense repeticions
+     * @param count Nombre d'ndexs vlids a l'array
+     */
+    public void remove(int[] indices, int count) {
+        if (count == 0) return;
+        int write = indices[0];
+        int k = 0;
+        for (int read = indices[0]; read < size; read++) {
+            if (k < count && indices[k] == read) {
+                k++;
+                continue;
+            }
+            x[write] = x[read];
+            y[write] = y[read];
+            vx[write] = vx[read];
+            vy[write] = vy[read];
+            mass[write] = mass[read];
+            particle[write] = particle[read];
+            ax[write] = ax[read];
+            ay[write] = ay[read];
+            name[write] = name[read];
+            color[write] = color[read];
+            radius[write] = radius[read];
+            semiMajorAxis[write] = semiMajorAxis[read];
+            eccentricity[write] = eccentricity[read];
+            write++;
+        }
+        // Allibera les referncies dels noms i colors que queden fora
+        Arrays.fill(name, write, size, null);
+        Arrays.fill(color, write, size, null);
+        size = write;
+        nameIndex = null;
+
+        if (x.length > 16 && size < x.length / 4) resize(Math.max(size * 2, 16));
+        accelerationsCurrent = false;
+        structureVersion++;
+    }
+
+    /**
+     * Crea una vista CelestialBody sobre la posici indicada.
+     * Els canvis fets a travs de la vista s'escriuen directament al magatzem.
+     */
+    public CelestialBody view(int i) {
+        return new CelestialBody(this, i);
+    }
+
+    /**
+     * Cerca un cos pel seu nom.
+     * @return ndex del cos, o -1 si no existeix
+     */
+    public int indexOf(String bodyName) {
+        for (int i = 0; i < size; i++) {
+            if (name[i].equals(bodyName)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Cerca tots els cossos amb el nom indicat, sense distingir majscules (com la base de dades).
+     * La primera cerca desprs d'eliminar cossos reconstrueix l'ndex de noms; les altres no
+     * depenen del nombre de cossos.
+     * @return ndexs dels cossos, en ordre creixent (array nou, buit si no n'hi ha cap)
+     */
+    public int[] indicesOf(String bodyName) {
+        if (nameIndex == null) {
+            Map<String, int[]> index = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                index.merge(nameKey(name[i]), new int[] { i }, BodyStore::append);
+            }
+            nameIndex = index;
+        }
+        int[] indices = nameIndex.get(nameKey(bodyName.trim()));
+        return indices == null ? new int[0] : indices.clone();
+    }
+
+    private static String nameKey(String bodyName) {
+        return bodyName.toLowerCase(Locale.ROOT);
+    }
+
+    private static int[] append(int[] indices, int[] more) {
+        int[] merged = Arrays.copyOf(indices, indices.length + more.length);
+        System.arraycopy(more, 0, merged, indices.length, more.length);
+        return merged;
+    }
+
+    /** Retorna el nombre de cossos del magatzem. */
+    public int size() { return size; }
+
+    // ARRAYS D'ESTAT (noms sn vlids els primers size() elements)
+
+    public double[] getXs() { return x; }
+    public double[] getYs() { return y; }
+    public double[] getVxs() { return vx; }
+    public double[] getVys() { return vy; }
+    public double[] getMasses() { return mass; }
+    public double[] getAxs() { return ax; }
+    public double[] getAys() { return ay; }
+
+    /**
+     * Indica si el cos s una partcula de prova (sense massa gravitatria efectiva).
+     * Les partcules es mouen dins del camp dels cossos massius per no atrauen cap altre cos.
+     */
+    public boolean isParticle(int i) { return particle[i]; }
+
+    /**
+     * Marca o desmarca un cos com a partcula de prova.
+     */
+    public void setParticle(int i, boolean value) {
+        if (particle[i] == value) return;
+        particle[i] = value;
+        accelerationsCurrent = false;
+        structureVersion++;
+    }
+
+    /** Retorna els ndexs dels cossos massius (noms sn vlids els primers getMassiveCount()). */
+    public int[] getMassiveIndices() { ensurePartition(); return massiveIndices; }
+
+    /** Retorna el nombre de cossos massius. */
+    public int getMassiveCount() { ensurePartition(); return massiveCount; }
+
+    /** Retorna els ndexs de les partcules de prova (noms sn vlids els primers getParticleCount()). */
+    public int[] getParticleIndices() { ensurePartition(); return particleIndices; }
+
+    /** Retorna el nombre de partcules de prova. */
+    public int getParticleCount() { ensurePartition(); return particleCount; }
+
+    /** Indica si els buffers d'acceleraci corresponen a les posicions actuals. */
+    public boolean isAccelerationsCurrent() { return accelerationsCurrent; }
+
+    /** Marca si els buffers d'acceleraci corresponen a les posicions actuals. */
+    public void setAccelerationsCurrent(boolean current) { this.accelerationsCurrent = current; }
+
+    /**
+     * Retorna la versi del conjunt de cossos. Canvia quan s'afegeixen o s'eliminen cossos o
+     * se'n modifiquen les dades descriptives (nom, color, radi).
+     */
+    public long getStructureVersion() { return structureVersion; }
+
+    // DADES DESCRIPTIVES
+
+    public String getName(int i) { return name[i]; }
+    public String getColor(int i) { return color[i]; }
+    public int getRadius(int i) { return radius[i]; }
+    public double getSemiMajorAxis(int i) { return semiMajorAxis[i]; }
+    public double getEccentricity(int i) { return eccentricity[i]; }
+
+    public void setSemiMajorAxis(int i, double value) { semiMajorAxis[i] = value; }
+
+    /** Defineix el radi de pantalla d'un cos (canvia la versi del conjunt de cossos). */
+    public void setRadius(int i, int value) {
+        if (radius[i] == value) return;
+        radius[i] = value;
+        structureVersion++;
+    }
+    public void setEccentricity(int i, double value) { eccentricity[i] = value; }
+
+    /** Defineix el color d'un cos (canvia la versi del conjunt de cossos). */
+    public void setColor(int i, String value) {
+        if (value.equals(color[i])) return;
+        color[i] = value;
+        structureVersion++;
+    }
+
+    /**
+     * Defineix la massa d'un cos. Una massa 0 el converteix en partcula de prova, com a add().
+     */
+    public void setMass(int i, double value) {
+        mass[i] = value;
+        accelerationsCurrent = false;
+        if (value == 0) setParticle(i, true);
+    }
+
+    /**
+     * Recalcula les llistes d'ndexs de cossos massius i de partcules si ha canviat el conjunt de cossos.
+     */
+    private void ensurePartition() {
+        if (partitionVersion == structureVersion) return;
+        if (massiveIndices.length < size) {
+            massiveIndices = new int[size];
+            particleIndices = new int[size];
+        }
+        massiveCount = 0;
+        particleCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (particle[i]) particleIndices[particleCount++] = i;
+            else massiveIndices[massiveCount++] = i;
+        }
+        partitionVersion = structureVersion;
+    }
+
+    /**
+     * Redimensiona tots els arrays a la nova capacitat.
+     */
+    private void resize(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        particle = Arrays.copyOf(particle, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        name = Arrays.copyOf(name, capacity);
+        color = Arrays.copyOf(color, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        semiMajorAxis = Arrays.copyOf(semiMajorAxis, capacity);
+        eccentricity = Arrays.copyOf(eccentricity, capacity);
+    }
+}
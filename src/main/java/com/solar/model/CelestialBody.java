@@ -2,6 +2,8 @@ package com.solar.model;
 
 /**
  * Classe que representa un cos celeste (planeta, estrella, etc.) en un sistema solar.
+ * Un cos pot ser independent (amb les dades als seus propis camps) o una vista sobre
+ * una posici d'un BodyStore, on resideix l'estat que modifica el motor fsic.
  */
 public class CelestialBody {
     // Propietats bsiques
@@ -17,6 +19,13 @@ public class CelestialBody {
     private double semiMajorAxis;  
     private double eccentricity;    
 
+    // Partcula de prova: noms sent l'atracci dels cossos massius
+    private boolean particle;
+
+    // Vista sobre un magatzem de cossos (null si el cos s independent)
+    private transient BodyStore store;
+    private transient int index = -1;
+
     /**
      * Constructor del cos.
      */
@@ -40,39 +49,93 @@ public class CelestialBody {
     }
 
 
+    /**
+     * Crea un cos a partir dels seus elements orbitals, tal com es desa a la base de dades:
+     * al periheli, a (a(1 - e), 0) del Sol, i amb velocitat 0. La velocitat orbital
+     * es calcula en afegir-lo a una simulaci.
+     */
+    public static CelestialBody fromOrbitalElements(String name, double mass, double semiMajorAxis,
+            double eccentricity, int radius, String color, boolean particle) {
+        CelestialBody body = new CelestialBody(
+            name, mass, semiMajorAxis * (1 - eccentricity),
+            0, 0, 0, radius, color
+        );
+        body.setSemiMajorAxis(semiMajorAxis);
+        body.setEccentricity(eccentricity);
+        body.setParticle(particle);
+        return body;
+    }
+
+    /**
+     * Constructor d'una vista sobre la posici indicada d'un magatzem.
+     */
+    CelestialBody(BodyStore store, int index) {
+        this(store.getName(index), store.getMasses()[index],
+             store.getXs()[index], store.getYs()[index],
+             store.getVxs()[index], store.getVys()[index],
+             store.getRadius(index), store.getColor(index));
+        this.semiMajorAxis = store.getSemiMajorAxis(index);
+        this.eccentricity = store.getEccentricity(index);
+        this.particle = store.isParticle(index);
+        this.store = store;
+        this.index = index;
+    }
+
+    /**
+     * Crea una cpia independent del cos amb el seu estat actual.
+     * @return Cos nou que no depn de cap magatzem
+     */
+    public CelestialBody detachedCopy() {
+        CelestialBody copy = new CelestialBody(getName(), getMass(), getX(), getY(),
+                getVx(), getVy(), getRadius(), getColor());
+        copy.setSemiMajorAxis(getSemiMajorAxis());
+        copy.setEccentricity(getEccentricity());
+        copy.setParticle(isParticle());
+        return copy;
+    }
+
     // GETTERS
 
 
     public String getName() { return name; }
-    public double getMass() { return mass; }
-    public double getX() { return x; }
-    public double getY() { return y; }
-    public double getVx() { return vx; }
-    public double getVy() { return vy; }
+    public double getMass() { return store != null ? store.getMasses()[index] : mass; }
+    public double getX() { return store != null ? store.getXs()[index] : x; }
+    public double getY() { return store != null ? store.getYs()[index] : y; }
+    public double getVx() { return store != null ? store.getVxs()[index] : vx; }
+    public double getVy() { return store != null ? store.getVys()[index] : vy; }
     public double getPrevX() { return prevX; }
     public double getPrevY() { return prevY; }
     public int getRadius() { return radius; }
     public String getColor() { return color; }
-    public double getSemiMajorAxis() { return semiMajorAxis; }
-    public double getEccentricity() { return eccentricity; }
+    public double getSemiMajorAxis() { return store != null ? store.getSemiMajorAxis(index) : semiMajorAxis; }
+    public double getEccentricity() { return store != null ? store.getEccentricity(index) : eccentricity; }
+    public boolean isParticle() { return store != null ? store.isParticle(index) : particle; }
 
     // SETTERS
     
-    public void setX(double x) { this.x = x; }
-    public void setY(double y) { this.y = y; }
-    public void setVx(double vx) { this.vx = vx; }
-    public void setVy(double vy) { this.vy = vy; }
+    public void setX(double x) { if (store != null) store.getXs()[index] = x; else this.x = x; }
+    public void setY(double y) { if (store != null) store.getYs()[index] = y; else this.y = y; }
+    public void setVx(double vx) { if (store != null) store.getVxs()[index] = vx; else this.vx = vx; }
+    public void setVy(double vy) { if (store != null) store.getVys()[index] = vy; else this.vy = vy; }
     public void setPrevX(double prevX) { this.prevX = prevX; }
     public void setPrevY(double prevY) { this.prevY = prevY; }
     
     /** Defineix el semieix major de l'rbita */
     public void setSemiMajorAxis(double semiMajorAxis) { 
-        this.semiMajorAxis = semiMajorAxis; 
+        if (store != null) store.setSemiMajorAxis(index, semiMajorAxis);
+        else this.semiMajorAxis = semiMajorAxis; 
     }
     
     /** Defineix l'excentricitat de l'rbita */
     public void setEccentricity(double eccentricity) { 
-        this.eccentricity = eccentricity; 
+        if (store != null) store.setEccentricity(index, eccentricity);
+        else this.eccentricity = eccentricity; 
+    }
+
+    /** Marca el cos com a partcula de prova (sent la gravetat per no n'exerceix) */
+    public void setParticle(boolean particle) {
+        this.particle = particle;
+        if (store != null) store.setParticle(index, particle);
     }
 
     /**
@@ -81,6 +144,6 @@ public class CelestialBody {
      */
     @Override
     public String toString() {
-        return String.format("%s[mass=%.2e, x=%.2e, y=%.2e]", name, mass, x, y);
+        return String.format("%s[mass=%.2e, x=%.2e, y=%.2e]", name, getMass(), getX(), getY());
     }
 }
@@ -0,0 +1,246 @@
+package com.solar.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ndex espacial (quadtree) de les posicions d'un fotograma, per respondre consultes de
+ * regi sense recrrer tots els cossos. Cada node guarda quants cossos cont, la seva massa
+ * i el seu centre, de manera que un grup de cossos ms petit que la resoluci demanada
+ * es pot retornar com un sol punt agregat sense baixar fins a les fulles.
+ * Els nodes es guarden en arrays que es reutilitzen entre fotogrames, com a BarnesHutTree.
+ */
+final class FrameIndex {
+    private static final int MAX_DEPTH = 48;          // Profunditat mxima (cossos gaireb coincidents)
+    private static final int INITIAL_CAPACITY = 64;   // Capacitat inicial de nodes
+
+    // Arrays del fotograma sobre el qual s'ha construt l'ndex (no es copien)
+    private double[] bodyX, bodyY, bodyMass;
+    private int[] nextBody = new int[0];    // Llista enllaada de cossos dins d'una mateixa fulla
+
+    // Dades dels nodes
+    private double[] centerX, centerY, halfSize;
+    private double[] nodeMass, comX, comY;  // Centre de masses (sumes ponderades fins acabar build)
+    private double[] sumX, sumY;            // Centre geomtric (per als grups de partcules sense massa)
+    private int[] count;                    // Cossos dins del node
+    private int[] heaviest;                 // Cos ms massiu del node (en dona el color)
+    private int[] firstChild;   // ndex del primer dels 4 fills (-1 si el node s una fulla)
+    private int[] firstBody;    // Primer cos de la fulla (-1 si s buida)
+    private int nodeCount;
+
+    FrameIndex() {
+        allocateNodes(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reconstrueix l'ndex amb els n primers cossos dels arrays indicats.
+     */
+    void build(double[] x, double[] y, double[] mass, int n) {
+        if (nextBody.length < n) nextBody = new int[n];
+        bodyX = x;
+        bodyY = y;
+        bodyMass = mass;
+
+        nodeCount = 0;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (!isFinite(i)) continue;
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        if (minX > maxX) return;
+
+        double half = Math.max(maxX - minX, maxY - minY) / 2 * 1.0001 + 1.0;
+        newNode((minX + maxX) / 2, (minY + maxY) / 2, half);
+        for (int i = 0; i < n; i++) {
+            if (isFinite(i)) insert(i);
+        }
+
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodeMass[node] > 0) {
+                comX[node] /= nodeMass[node];
+                comY[node] /= nodeMass[node];
+            } else if (count[node] > 0) {
+                comX[node] = sumX[node] / count[node];
+                comY[node] = sumY[node] / count[node];
+            }
+        }
+    }
+
+    /**
+     * Visita els cossos dins del rectangle indicat. Els nodes de mida inferior a la resoluci
+     * amb ms d'un cos es visiten com un sol agregat situat al seu centre de masses.
+     * Es pot cridar des de diversos fils alhora un cop construt l'ndex.
+     * @param resolution Mida (en metres) per sota de la qual els cossos d'un node s'agreguen
+     */
+    void query(double minX, double minY, double maxX, double maxY, double resolution,
+            SimulationFrame.RegionVisitor visitor) throws IOException {
+        if (nodeCount == 0) return;
+        int[] stack = new int[3 * MAX_DEPTH + 4];
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (count[node] == 0) continue;
+            double h = halfSize[node];
+            if (centerX[node] + h < minX || centerX[node] - h > maxX
+                    || centerY[node] + h < minY || centerY[node] - h > maxY) {
+                continue;
+            }
+
+            if (count[node] > 1 && 2 * h < resolution) {
+                // Grup ms petit que la resoluci: un sol punt si el seu centre s visible
+                if (inside(comX[node], comY[node], minX, minY, maxX, maxY)) {
+                    visitor.aggregate(count[node], nodeMass[node], comX[node], comY[node], heaviest[node]);
+                }
+                continue;
+            }
+
+            if (firstChild[node] < 0) {
+                for (int b = firstBody[node]; b >= 0; b = nextBody[b]) {
+                    if (inside(bodyX[b], bodyY[b], minX, minY, maxX, maxY)) visitor.body(b);
+                }
+                continue;
+            }
+
+            int child = firstChild[node];
+            stack[sp++] = child;
+            stack[sp++] = child + 1;
+            stack[sp++] = child + 2;
+            stack[sp++] = child + 3;
+        }
+    }
+
+    private static boolean inside(double x, double y, double minX, double minY, double maxX, double maxY) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    private boolean isFinite(int i) {
+        return Double.isFinite(bodyX[i]) && Double.isFinite(bodyY[i]);
+    }
+
+    /**
+     * Insereix el cos indicat baixant des de l'arrel.
+     */
+    private void insert(int body) {
+        int node = 0;
+        int depth = 0;
+
+        while (true) {
+            accumulate(node, body);
+
+            if (firstChild[node] >= 0) {
+                node = firstChild[node] + quadrant(node, bodyX[body], bodyY[body]);
+                depth++;
+                continue;
+            }
+
+            if (firstBody[node] < 0) {
+                firstBody[node] = body;
+                nextBody[body] = -1;
+                return;
+            }
+
+            if (depth >= MAX_DEPTH) {
+                // Cossos prcticament coincidents: es guarden a la mateixa fulla
+                nextBody[body] = firstBody[node];
+                firstBody[node] = body;
+                return;
+            }
+
+            // Fulla ocupada: es divideix i el cos existent baixa al fill corresponent
+            int existing = firstBody[node];
+            firstBody[node] = -1;
+            subdivide(node);
+            int target = firstChild[node] + quadrant(node, bodyX[existing], bodyY[existing]);
+            accumulate(target, existing);
+            firstBody[target] = existing;
+            nextBody[existing] = -1;
+
+            node = firstChild[node] + quadrant(node, bodyX[body], bodyY[body]);
+            depth++;
+        }
+    }
+
+    private void accumulate(int node, int body) {
+        double m = bodyMass[body];
+        nodeMass[node] += m;
+        comX[node] += m * bodyX[body];
+        comY[node] += m * bodyY[body];
+        sumX[node] += bodyX[body];
+        sumY[node] += bodyY[body];
+        if (count[node]++ == 0 || m > bodyMass[heaviest[node]]) heaviest[node] = body;
+    }
+
+    /**
+     * Crea els 4 fills d'un node de manera consecutiva.
+     */
+    private void subdivide(int node) {
+        double h = halfSize[node] / 2;
+        double cx = centerX[node], cy = centerY[node];
+        // L'ordre ha de coincidir amb quadrant(): bit 0 = est, bit 1 = nord
+        int first = newNode(cx - h, cy - h, h);
+        newNode(cx + h, cy - h, h);
+        newNode(cx - h, cy + h, h);
+        newNode(cx + h, cy + h, h);
+        firstChild[node] = first;
+    }
+
+    private int quadrant(int node, double x, double y) {
+        int q = 0;
+        if (x >= centerX[node]) q |= 1;
+        if (y >= centerY[node]) q |= 2;
+        return q;
+    }
+
+    private int newNode(double cx, double cy, double half) {
+        if (nodeCount == centerX.length) allocateNodes(centerX.length * 2);
+        int node = nodeCount++;
+        centerX[node] = cx;
+        centerY[node] = cy;
+        halfSize[node] = half;
+        nodeMass[node] = 0;
+        comX[node] = 0;
+        comY[node] = 0;
+        sumX[node] = 0;
+        sumY[node] = 0;
+        count[node] = 0;
+        heaviest[node] = -1;
+        firstChild[node] = -1;
+        firstBody[node] = -1;
+        return node;
+    }
+
+    private void allocateNodes(int capacity) {
+        if (centerX == null) {
+            centerX = new double[capacity];
+            centerY = new double[capacity];
+            halfSize = new double[capacity];
+            nodeMass = new double[capacity];
+            comX = new double[capacity];
+            comY = new double[capacity];
+            sumX = new double[capacity];
+            sumY = new double[capacity];
+            count = new int[capacity];
+            heaviest = new int[capacity];
+            firstChild = new int[capacity];
+            firstBody = new int[capacity];
+            return;
+        }
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        halfSize = Arrays.copyOf(halfSize, capacity);
+        nodeMass = Arrays.copyOf(nodeMass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        sumX = Arrays.copyOf(sumX, capacity);
+        sumY = Arrays.copyOf(sumY, capacity);
+        count = Arrays.copyOf(count, capacity);
+        heaviest = Arrays.copyOf(heaviest, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        firstBody = Arrays.copyOf(firstBody, capacity);
+    }
+}
@@ -0,0 +1,149 @@
+package com.solar.model;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fotograma de la simulaci: cpia coherent de l'estat de tots els cossos en un pas concret.
+ * SimulationState en mant un petit conjunt (triple buffer) que reutilitza entre passos.
+ * Mentre un lector t el fotograma adquirit, el seu contingut no canvia; cal alliberar-lo
+ * amb release() quan s'ha acabat de llegir perqu es pugui tornar a fer servir.
+ */
+public final class SimulationFrame {
+    private final AtomicInteger readers = new AtomicInteger();
+
+    private long tick;
+    private double simulationTime;
+    private long structureEpoch;
+    private int size;
+
+    // Estat dinmic copiat a cada pas
+    private double[] x = new double[0], y = new double[0];
+    private double[] vx = new double[0], vy = new double[0];
+    private double[] mass = new double[0];
+
+    // Dades descriptives: noms es copien quan canvia el conjunt de cossos
+    private String[] names = new String[0];
+    private String[] colors = new String[0];
+    private int[] radii = new int[0];
+    private BodyStore metadataStore;
+    private long metadataVersion = -1;
+
+    // ndex espacial de les posicions: es construeix a la primera consulta de regi
+    private final FrameIndex index = new FrameIndex();
+    private boolean indexBuilt;
+
+    /**
+     * Copia l'estat actual del magatzem al fotograma. Noms s'ha de cridar
+     * quan cap lector el t adquirit.
+     * @param structureEpoch Comptador de la simulaci que canvia quan canvia el conjunt de cossos
+     */
+    void fill(BodyStore store, long tick, double simulationTime, long structureEpoch) {
+        int n = store.size();
+        if (x.length < n) {
+            x = new double[n];
+            y = new double[n];
+            vx = new double[n];
+            vy = new double[n];
+            mass = new double[n];
+        }
+        System.arraycopy(store.getXs(), 0, x, 0, n);
+        System.arraycopy(store.getYs(), 0, y, 0, n);
+        System.arraycopy(store.getVxs(), 0, vx, 0, n);
+        System.arraycopy(store.getVys(), 0, vy, 0, n);
+        System.arraycopy(store.getMasses(), 0, mass, 0, n);
+
+        if (metadataStore != store || metadataVersion != store.getStructureVersion()) {
+            names = new String[n];
+            colors = new String[n];
+            radii = new int[n];
+            for (int i = 0; i < n; i++) {
+                names[i] = store.getName(i);
+                colors[i] = store.getColor(i);
+                radii[i] = store.getRadius(i);
+            }
+            metadataStore = store;
+            metadataVersion = store.getStructureVersion();
+        }
+
+        this.size = n;
+        this.tick = tick;
+        this.simulationTime = simulationTime;
+        this.structureEpoch = structureEpoch;
+        this.indexBuilt = false;
+    }
+
+    /** Marca el fotograma com a adquirit per un lector ms. */
+    void retain() {
+        readers.incrementAndGet();
+    }
+
+    /** Indica si algun lector t el fotograma adquirit. */
+    boolean isInUse() {
+        return readers.get() > 0;
+    }
+
+    /**
+     * Allibera el fotograma desprs de llegir-lo.
+     */
+    public void release() {
+        readers.decrementAndGet();
+    }
+
+    /**
+     * Visita els cossos d'una regi del mn, agregant els grups ms petits que la resoluci.
+     * L'ndex espacial es construeix el primer cop i el comparteixen tots els lectors del fotograma.
+     * @param resolution Mida en metres (normalment un pxel) per sota de la qual els cossos s'agreguen
+     */
+    public void visitRegion(double minX, double minY, double maxX, double maxY, double resolution,
+            RegionVisitor visitor) throws IOException {
+        synchronized (index) {
+            if (!indexBuilt) {
+                index.build(x, y, mass, size);
+                indexBuilt = true;
+            }
+        }
+        index.query(minX, minY, maxX, maxY, resolution, visitor);
+    }
+
+    /**
+     * Receptor dels resultats de visitRegion.
+     */
+    public interface RegionVisitor {
+        /** Cos individual visible (ndex dins del fotograma). */
+        void body(int i) throws IOException;
+
+        /**
+         * Grup de cossos que a la resoluci demanada ocupen menys d'un punt.
+         * @param count Nombre de cossos del grup
+         * @param mass Massa total del grup
+         * @param x Centre de masses (o centre geomtric si el grup no t massa)
+         * @param representative ndex del cos ms massiu del grup
+         */
+        void aggregate(int count, double mass, double x, double y, int representative) throws IOException;
+    }
+
+    /** Retorna el nmero de pas del fotograma. */
+    public long getTick() { return tick; }
+
+    /** Retorna el temps simulat (en segons) del fotograma. */
+    public double getSimulationTime() { return simulationTime; }
+
+    /**
+     * Retorna l'poca del conjunt de cossos: dos fotogrames de la mateixa simulaci amb la
+     * mateixa poca tenen els mateixos cossos, en el mateix ordre i amb les mateixes dades descriptives.
+     */
+    public long getStructureEpoch() { return structureEpoch; }
+
+    /** Retorna el nombre de cossos del fotograma. */
+    public int size() { return size; }
+
+    public double getX(int i) { return x[i]; }
+    public double getY(int i) { return y[i]; }
+    public double getVx(int i) { return vx[i]; }
+    public double getVy(int i) { return vy[i]; }
+    public double getMass(int i) { return mass[i]; }
+    public String getName(int i) { return names[i]; }
+    public String getColor(int i) { return colors[i]; }
+    public int getRadius(int i) { return radii[i]; }
+}
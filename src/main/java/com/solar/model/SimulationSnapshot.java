@@ -0,0 +1,205 @@
+package com.solar.model;
+
+import com.solar.ForceSolver;
+import com.solar.Integrator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Instantnia compacta d'una simulaci, per hibernar les simulacions inactives.
+ * Noms es guarda el que no es pot recalcular: l'estat dels cossos, el rellotge de la
+ * simulaci, la configuraci i els cossos inicials (per als reinicis). Els buffers d'acceleraci, l'arbre de Barnes-Hut i els
+ * elements orbitals es tornen a calcular en el primer pas desprs de restaurar-la.
+ * El format s binari (DataOutput) i comprimit amb Deflate.
+ */
+public final class SimulationSnapshot {
+    private static final int FORMAT_VERSION = 2;     // 2: cossos inicials
+
+    private SimulationSnapshot() {}
+
+    /**
+     * Serialitza l'estat actual de la simulaci.
+     * @param state Simulaci a desar (no es modifica)
+     * @return Instantnia comprimida
+     */
+    public static byte[] capture(SimulationState state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            state.writeSnapshot(out);
+        } catch (IOException e) {
+            // Noms s'escriu a memria
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reconstrueix una simulaci a partir d'una instantnia.
+     * @param snapshot Bytes retornats per capture()
+     * @return Simulaci nova en el mateix pas i amb la mateixa configuraci
+     * @throws IllegalArgumentException Si la instantnia no s vlida
+     */
+    public static SimulationState restore(byte[] snapshot) {
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(snapshot)))) {
+            return read(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Instantnia de simulaci no vlida", e);
+        }
+    }
+
+    /**
+     * Escriu la configuraci i els cossos de la simulaci. S'ha de cridar amb el
+     * bloqueig de la simulaci perqu no es barregi amb un pas a mig fer.
+     */
+    static void write(DataOutputStream out, SimulationState state, BodyStore store,
+            long tick, double simulationTime, List<CelestialBody> initialBodies) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(tick);
+        out.writeDouble(simulationTime);
+        out.writeDouble(state.getTimeScale());
+        out.writeUTF(state.getForceSolver().name());
+        out.writeDouble(state.getTheta());
+        out.writeUTF(state.getIntegrator().name());
+        out.writeDouble(state.getBlockScheduler().getEta());
+        out.writeBoolean(state.isCollisionsEnabled());
+        out.writeDouble(state.getCollisionDetector().getMetersPerPixel());
+
+        Set<String> perturbed = state.getPerturbedBodies();
+        out.writeInt(perturbed.size());
+        for (String name : perturbed) out.writeUTF(name);
+
+        writeBodies(out, store);
+        writeInitialBodies(out, initialBodies);
+    }
+
+    /**
+     * Serialitza noms els cossos (sense configuraci), per als fotogrames clau de la Timeline.
+     * S'ha de cridar amb el bloqueig de la simulaci.
+     * @return Cossos comprimits
+     */
+    static byte[] captureBodies(BodyStore store) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            writeBodies(out, store);
+        } catch (IOException e) {
+            // Noms s'escriu a memria
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reconstrueix en un magatzem nou els cossos desats amb captureBodies().
+     */
+    static BodyStore restoreBodies(byte[] bodies) {
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(bodies)))) {
+            return readBodies(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Fotograma clau no vlid", e);
+        }
+    }
+
+    private static void writeBodies(DataOutputStream out, BodyStore store) throws IOException {
+        int n = store.size();
+        double[] x = store.getXs(), y = store.getYs();
+        double[] vx = store.getVxs(), vy = store.getVys(), mass = store.getMasses();
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            out.writeUTF(store.getName(i));
+            out.writeUTF(store.getColor(i));
+            out.writeInt(store.getRadius(i));
+            out.writeBoolean(store.isParticle(i));
+            out.writeDouble(mass[i]);
+            out.writeDouble(x[i]);
+            out.writeDouble(y[i]);
+            out.writeDouble(vx[i]);
+            out.writeDouble(vy[i]);
+            out.writeDouble(store.getSemiMajorAxis(i));
+            out.writeDouble(store.getEccentricity(i));
+        }
+    }
+
+    /**
+     * Escriu els cossos inicials amb el mateix format que writeBodies, sense passar per un magatzem.
+     */
+    private static void writeInitialBodies(DataOutputStream out, List<CelestialBody> bodies) throws IOException {
+        out.writeInt(bodies.size());
+        for (CelestialBody body : bodies) {
+            out.writeUTF(body.getName());
+            out.writeUTF(body.getColor());
+            out.writeInt(body.getRadius());
+            out.writeBoolean(body.isParticle());
+            out.writeDouble(body.getMass());
+            out.writeDouble(body.getX());
+            out.writeDouble(body.getY());
+            out.writeDouble(body.getVx());
+            out.writeDouble(body.getVy());
+            out.writeDouble(body.getSemiMajorAxis());
+            out.writeDouble(body.getEccentricity());
+        }
+    }
+
+    private static SimulationState read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Versi d'instantnia desconeguda: " + version);
+        }
+        long tick = in.readLong();
+        double simulationTime = in.readDouble();
+        double timeScale = in.readDouble();
+        ForceSolver solver = ForceSolver.valueOf(in.readUTF());
+        double theta = in.readDouble();
+        Integrator integrator = Integrator.valueOf(in.readUTF());
+        double eta = in.readDouble();
+        boolean collisions = in.readBoolean();
+        double collisionScale = in.readDouble();
+
+        int perturbedCount = in.readInt();
+        List<String> perturbed = new ArrayList<>(perturbedCount);
+        for (int k = 0; k < perturbedCount; k++) perturbed.add(in.readUTF());
+
+        BodyStore store = readBodies(in);
+        BodyStore initialStore = readBodies(in);
+        List<CelestialBody> initialBodies = new ArrayList<>(initialStore.size());
+        for (int i = 0; i < initialStore.size(); i++) {
+            initialBodies.add(initialStore.view(i).detachedCopy());
+        }
+
+        SimulationState state = new SimulationState(store, tick, simulationTime, initialBodies);
+        state.setTimeScale(timeScale);
+        state.setForceSolver(solver);
+        state.setTheta(theta);
+        state.setIntegrator(integrator);
+        state.getBlockScheduler().setEta(eta);
+        state.setCollisionsEnabled(collisions);
+        state.getCollisionDetector().setMetersPerPixel(collisionScale);
+        state.setPerturbedBodies(perturbed);
+        return state;
+    }
+
+    private static BodyStore readBodies(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        BodyStore store = new BodyStore(n);
+        for (int i = 0; i < n; i++) {
+            String name = in.readUTF();
+            String color = in.readUTF();
+            int radius = in.readInt();
+            boolean particle = in.readBoolean();
+            double mass = in.readDouble();
+            CelestialBody body = new CelestialBody(name, mass, in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), radius, color);
+            body.setSemiMajorAxis(in.readDouble());
+            body.setEccentricity(in.readDouble());
+            body.setParticle(particle);
+            store.add(body);
+        }
+        return store;
+    }
+}
@@ -1,20 +1,69 @@
 package com.solar.model;
 
+import com.solar.BarnesHutTree;
+import com.solar.BlockTimestepScheduler;
+import com.solar.CollisionDetector;
 import com.solar.DbManager;
+import com.solar.ForceSolver;
+import com.solar.Integrator;
+import com.solar.KeplerPropagator;
 import com.solar.PhysicsEngine;
+import com.solar.StatePersister;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 /**
  * Classe que gestiona l'estat de la simulaci del sistema solar.
- * Cont la llista de cossos celestes i ofereix mtodes per gestionar-ne l'estat.
+ * Cont el magatzem de cossos celestes i ofereix mtodes per gestionar-ne l'estat.
  */
 public class SimulationState {
-    private List<CelestialBody> bodies;                  // Llista actual de cossos celestes
+    private static final AtomicLong INSTANCES = new AtomicLong();
+    private final long instanceId = INSTANCES.incrementAndGet(); // Distingeix simulacions amb el mateix tick
+
+    private volatile List<CelestialBody> bodies;         // Vistes sobre el magatzem actual (null = cal crear-les)
+    private volatile BodyStore store;                    // Estat dels cossos en arrays primitius
     private final List<CelestialBody> initialBodies;     // Llista inicial de cossos (immutable)
 
+    // Configuraci del clcul de forces
+    private volatile ForceSolver forceSolver = ForceSolver.EXACT;
+    private volatile double theta = 0.5;                 // Angle d'obertura de Barnes-Hut
+    private final BarnesHutTree forceTree = new BarnesHutTree(); // Es reutilitza entre passos
+    private volatile Integrator integrator = Integrator.LEAPFROG;
+    private final BlockTimestepScheduler blockScheduler = new BlockTimestepScheduler();
+    private final KeplerPropagator keplerPropagator = new KeplerPropagator();
+    private volatile Set<String> perturbedBodies = Collections.emptySet(); // Integrats numricament en mode Kepler
+
+    // Collisions: els cossos que se superposen es fusionen al final de cada pas
+    private final CollisionDetector collisionDetector = new CollisionDetector();
+    private volatile boolean collisionsEnabled = true;
+
+    // Traces orbitals: posicions passades dels cossos massius, fora del heap
+    private final TrailHistory trailHistory = new TrailHistory();
+
+    // Fotogrames clau i passos fets, per poder tornar a un instant anterior
+    private static final int MAX_SEEK_STEPS = 100_000;   // Passos mxims que pot integrar un salt
+    private final Timeline timeline = new Timeline();
+    private volatile boolean timelineStale;              // La configuraci ha canviat des de l'ltim fotograma clau
+
+    // Avan temporal (el fa el fil de simulaci, no les peticions)
+    private volatile double timeScale = 1.0;             // Escala de temps triada a la interfcie
+    private volatile long tick;                          // Nombre de passos completats
+    private double simulationTime;                       // Temps simulat en segons
+
+    // Publicaci de fotogrames: els lectors mai bloquegen ni veuen un pas a mig fer
+    private static final int FRAME_BUFFERS = 3;
+    private final AtomicReference<SimulationFrame> currentFrame = new AtomicReference<>();
+    private final List<SimulationFrame> framePool = new ArrayList<>(FRAME_BUFFERS);
+    private long structureEpoch;                         // Canvia quan canvia el conjunt de cossos publicat
+    private BodyStore publishedStore;
+    private long publishedVersion = -1;
+
     /**
      * Constructor per defecte que carrega TOTS els planetes de la base de dades.
      * @throws SQLException Si hi ha un error en accedir a la base de dades
@@ -35,31 +84,28 @@ public class SimulationState {
     }
 
     /**
-     * Reinicia l'estat de la simulaci al seu estat inicial.
-     * @throws SQLException Si hi ha un error en accedir a la base de dades
+     * Constructor per restaurar una simulaci hibernada (vegeu SimulationSnapshot).
+     * Els cossos ja tenen les velocitats desades i no es tornen a inicialitzar les rbites.
+     * @param initialBodies Cossos amb qu es va crear la simulaci, per als reinicis
      */
-    public synchronized void reset() throws SQLException {
-        // Carrega l'estat inicial de la base de dades
-        List<CelestialBody> freshBodies = DbManager.loadInitialState();
-        this.bodies = new CopyOnWriteArrayList<>();
+    SimulationState(BodyStore store, long tick, double simulationTime, List<CelestialBody> initialBodies) {
+        this.initialBodies = Collections.unmodifiableList(initialBodies);
+        this.store = store;
+        this.tick = tick;
+        this.simulationTime = simulationTime;
+        // L'historial anterior a la hibernaci no es desa: la lnia de temps comena aqu
+        timeline.restart(store, simulationTime);
+        publishFrame();
+    }
 
-        // Crea cpies dels cossos celestes per evitar modificacions accidentals
-        for (CelestialBody body : freshBodies) {
-            CelestialBody copy = new CelestialBody(
-                body.getName(),
-                body.getMass(),
-                body.getX(),
-                body.getY(),
-                body.getVx(),
-                body.getVy(),
-                body.getRadius(),
-                body.getColor()
-            );
-            copy.setSemiMajorAxis(body.getSemiMajorAxis());
-            copy.setEccentricity(body.getEccentricity());
-            this.bodies.add(copy);
-        }
-        PhysicsEngine.initializeOrbits(this.bodies);
+    /**
+     * Reinicia l'estat de la simulaci al seu estat inicial: els cossos amb qu es va crear
+     * (noms els seleccionats, si n'hi havia), copiats de memria. Les instantnies els
+     * conserven, de manera que una simulaci hibernada es reinicia igual.
+     * @throws IllegalArgumentException Si els cossos inicials no inclouen el Sol
+     */
+    public synchronized void reset() {
+        loadBodies(initialBodies);
     }
 
     /**
@@ -68,41 +114,438 @@ public class SimulationState {
      */
     public synchronized void reload() throws SQLException {
         // Carrega l'estat complet de la base de dades
-        List<CelestialBody> freshBodies = DbManager.loadInitialState();
+        loadBodies(DbManager.loadInitialState());
+    }
+
+    /**
+     * Afegeix un cos a la simulaci en curs. Noms se n'inicialitza l'rbita (al voltant de la
+     * posici actual del Sol); la resta de cossos conserven la seva posici i velocitat.
+     * @param body Cos nou, amb la posici relativa al Sol com a la base de dades (no es modifica)
+     * @throws IllegalArgumentException Si la simulaci no t Sol
+     */
+    public synchronized void addBody(CelestialBody body) {
+        int i = store.add(body);
+        try {
+            PhysicsEngine.initializeOrbit(store, i);
+        } catch (IllegalArgumentException e) {
+            store.remove(new int[] { i }, 1);
+            throw e;
+        }
+        bodiesChanged();
+    }
 
-        this.bodies = new CopyOnWriteArrayList<>();
-        for (CelestialBody body : freshBodies) {
-            CelestialBody copy = new CelestialBody(
-                body.getName(),
-                body.getMass(),
-                body.getX(),
-                body.getY(),
-                body.getVx(),
-                body.getVy(),
-                body.getRadius(),
-                body.getColor()
-            );
-            copy.setSemiMajorAxis(body.getSemiMajorAxis());
-            copy.setEccentricity(body.getEccentricity());
-            this.bodies.add(copy);
+    /**
+     * Afegeix molts cossos a la simulaci en curs, com addBody, per publicant el canvi un sol cop.
+     * Els cossos es consumeixen a mesura que s'afegeixen, de manera que es poden llegir
+     * directament d'un fitxer (vegeu BodyImporter).
+     * @return Nombre de cossos afegits
+     * @throws IllegalArgumentException Si la simulaci no t Sol (no s'afegeix cap cos)
+     */
+    public synchronized int addBodies(Iterator<CelestialBody> newBodies) {
+        int first = store.size();
+        try {
+            while (newBodies.hasNext()) {
+                store.add(newBodies.next());
+            }
+            PhysicsEngine.initializeOrbits(store, first, store.size());
+        } catch (RuntimeException e) {
+            int[] added = IntStream.range(first, store.size()).toArray();
+            store.remove(added, added.length);
+            throw e;
         }
-        PhysicsEngine.initializeOrbits(this.bodies);
+        int count = store.size() - first;
+        if (count > 0) bodiesChanged();
+        return count;
+    }
+
+    /**
+     * Elimina de la simulaci en curs els cossos amb el nom indicat. Com a la base de dades,
+     * el nom no distingeix majscules.
+     * @return Nombre de cossos eliminats
+     */
+    public synchronized int removeBodies(String name) {
+        int[] indices = store.indicesOf(name);
+        if (indices.length > 0) {
+            store.remove(indices, indices.length);
+            bodiesChanged();
+        }
+        return indices.length;
+    }
+
+    /**
+     * Actualitza les dades dels cossos amb el mateix nom (massa, radi, color, partcula i
+     * elements orbitals) sense tocar la resta. Si canvien els elements orbitals, el cos
+     * torna a comenar l'rbita des del periheli; si no, conserva la posici i la velocitat.
+     * @param body Dades noves
+     * @return Nombre de cossos actualitzats
+     */
+    public synchronized int updateBody(CelestialBody body) {
+        int[] indices = store.indicesOf(body.getName());
+        for (int i : indices) {
+            store.setMass(i, body.getMass());
+            store.setParticle(i, body.isParticle() || body.getMass() == 0);
+            store.setRadius(i, body.getRadius());
+            store.setColor(i, body.getColor());
+            if (store.getSemiMajorAxis(i) != body.getSemiMajorAxis()
+                    || store.getEccentricity(i) != body.getEccentricity()) {
+                store.setSemiMajorAxis(i, body.getSemiMajorAxis());
+                store.setEccentricity(i, body.getEccentricity());
+                store.getXs()[i] = body.getSemiMajorAxis() * (1 - body.getEccentricity());
+                store.getYs()[i] = 0;
+                PhysicsEngine.initializeOrbit(store, i);
+            }
+        }
+        if (indices.length > 0) bodiesChanged();
+        return indices.length;
+    }
+
+    /**
+     * Publica un canvi fet al conjunt de cossos fora d'un pas de simulaci.
+     */
+    private void bodiesChanged() {
+        // Els ndexs poden haver canviat: les vistes antigues ja no sn vlides.
+        // Les noves es creen quan alg les demana, no a cada edici
+        this.bodies = null;
+        // La massa o l'rbita d'un cos poden haver canviat sense canviar la versi del magatzem:
+        // el mode Kepler no pot continuar amb els elements orbitals anteriors
+        keplerPropagator.invalidate();
+        // Els passos desats abans del canvi ja no es poden repetir; el fotograma clau nou
+        // es desa al pas segent, fora de la petici
+        timelineStale = true;
+        publishFrame();
     }
 
+    /**
+     * Copia els cossos indicats a un magatzem nou i inicialitza les seves rbites.
+     * La llista de cossos passa a ser un conjunt de vistes sobre aquest magatzem.
+     */
+    private void loadBodies(List<CelestialBody> freshBodies) {
+        // El magatzem copia les dades per evitar modificacions accidentals
+        BodyStore freshStore = BodyStore.of(freshBodies);
+        PhysicsEngine.initializeOrbits(freshStore);
+
+        this.store = freshStore;
+        this.bodies = null;
+        this.simulationTime = 0;
+        trailHistory.clear();
+        restartTimeline();
+        publishFrame();
+    }
+
+    /**
+     * Torna a comenar la lnia de temps amb l'estat actual.
+     */
+    private void restartTimeline() {
+        timelineStale = false;
+        timeline.restart(store, simulationTime);
+    }
+
+    /**
+     * Crea una vista per a cada cos del magatzem.
+     */
+    private static List<CelestialBody> createViews(BodyStore store) {
+        List<CelestialBody> views = new ArrayList<>(store.size());
+        for (int i = 0; i < store.size(); i++) {
+            views.add(store.view(i));
+        }
+        return Collections.unmodifiableList(views);
+    }
+
+    /**
+     * Copia l'estat actual a un fotograma lliure i el publica de manera atmica.
+     * Es reutilitza un fotograma que no sigui el publicat ni estigui adquirit per cap lector;
+     * si tots estan ocupats (lectors lents) se'n crea un de nou.
+     * Noms es crida des dels mtodes sincronitzats que modifiquen l'estat.
+     */
+    private void publishFrame() {
+        SimulationFrame published = currentFrame.get();
+        SimulationFrame target = null;
+        for (SimulationFrame frame : framePool) {
+            if (frame != published && !frame.isInUse()) {
+                target = frame;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new SimulationFrame();
+            if (framePool.size() < FRAME_BUFFERS) framePool.add(target);
+        }
+        if (store != publishedStore || store.getStructureVersion() != publishedVersion) {
+            structureEpoch++;
+            publishedStore = store;
+            publishedVersion = store.getStructureVersion();
+        }
+        target.fill(store, tick, simulationTime, structureEpoch);
+        currentFrame.set(target);
+    }
+
+    /**
+     * Adquireix l'ltim fotograma publicat sense bloquejar.
+     * Cal cridar {@link SimulationFrame#release()} quan s'hagi acabat de llegir.
+     * @return Fotograma coherent de l'ltim pas completat
+     */
+    public SimulationFrame acquireFrame() {
+        while (true) {
+            SimulationFrame frame = currentFrame.get();
+            frame.retain();
+            // Si entre la lectura i el retain s'ha publicat un altre fotograma,
+            // aquest podria estar-se reescrivint: es torna a provar
+            if (currentFrame.get() == frame) return frame;
+            frame.release();
+        }
+    }
+
+    /**
+     * Avana la simulaci un pas i publica el fotograma resultant.
+     * Est sincronitzat amb reset() i reload() perqu un reinici no es barregi amb un pas a mig fer.
+     * @param timeScale Escala de temps efectiva del pas
+     */
+    public synchronized void advance(double timeScale) {
+        if (timelineStale) restartTimeline();
+        integrate(timeScale);
+        timeline.record(timeScale, store, simulationTime);
+        tick++;
+        trailHistory.record(store, tick);
+        publishFrame();
+    }
+
+    /**
+     * Fa un pas d'integraci: forces, posicions, collisions i rellotge.
+     */
+    private void integrate(double timeScale) {
+        PhysicsEngine.update(this, timeScale);
+        if (collisionsEnabled && collisionDetector.resolve(store) > 0) {
+            // Els ndexs han canviat: les vistes antigues ja no sn vlides
+            this.bodies = null;
+        }
+        simulationTime += PhysicsEngine.effectiveTimeStep(timeScale);
+    }
+
+    /**
+     * Salta a un instant de la simulaci.
+     * En mode Kepler sense cossos pertorbats la posici es calcula directament.
+     * Si no, per tornar enrere es restaura el fotograma clau anterior a l'instant i es
+     * repeteixen els passos desats (el resultat s el mateix que es va simular), i per anar
+     * endavant s'integra pas a pas amb l'escala de temps actual. L'instant d'arribada s
+     * l'ltim pas que no el supera.
+     * @param time Temps simulat de destinaci, en segons des de l'ltim reinici
+     * @throws IllegalArgumentException Si l'instant no s vlid
+     * @throws IllegalStateException Si l'instant no es pot assolir
+     */
+    public synchronized void seek(double time) {
+        if (!(time >= 0) || Double.isInfinite(time)) {
+            throw new IllegalArgumentException("L'instant de destinaci ha de ser un temps positiu");
+        }
+        if (integrator == Integrator.KEPLER && perturbedBodies.isEmpty()) {
+            keplerPropagator.seek(this, time);
+            simulationTime = time;
+            restartTimeline();
+        } else if (time < simulationTime) {
+            rewind(time);
+        } else {
+            fastForward(time);
+        }
+        tick++;
+        trailHistory.clear();  // Les traces no poden unir dos instants separats
+        publishFrame();
+    }
+
+    /**
+     * Torna a un instant anterior repetint els passos desats des del fotograma clau previ.
+     * Els passos posteriors a l'instant es descarten: la simulaci continua des d'aqu.
+     */
+    private void rewind(double time) {
+        // Amb una configuraci diferent els passos desats no es poden repetir igual
+        if (timelineStale) restartTimeline();
+        Timeline.Keyframe keyframe = timeline.keyframeAt(time);
+        if (keyframe == null) {
+            throw new IllegalStateException("La simulaci no conserva l'historial d'aquest instant");
+        }
+        // Es compten els passos abans de tocar res: el salt es fa amb el monitor agafat
+        int steps = 0;
+        double t = keyframe.time;
+        while (steps < keyframe.steps() && t + PhysicsEngine.effectiveTimeStep(keyframe.scale(steps)) <= time) {
+            t += PhysicsEngine.effectiveTimeStep(keyframe.scale(steps++));
+        }
+        if (steps > MAX_SEEK_STEPS) {
+            throw new IllegalStateException("L'instant s massa lluny del fotograma clau anterior: caldria repetir "
+                + steps + " passos i el mxim s " + MAX_SEEK_STEPS);
+        }
+        timeline.rewind(time);
+        this.store = keyframe.restore();
+        this.bodies = null;
+        this.simulationTime = keyframe.time;
+        for (int s = 0; s < steps; s++) {
+            integrate(keyframe.scale(s));
+        }
+        timeline.truncate(keyframe, steps);
+    }
+
+    /**
+     * Avana fins a l'instant indicat amb l'escala de temps actual, registrant els passos.
+     */
+    private void fastForward(double time) {
+        double scale = timeScale;
+        double dt = PhysicsEngine.effectiveTimeStep(scale);
+        if (!(dt > 0) || (time - simulationTime) / dt > MAX_SEEK_STEPS) {
+            throw new IllegalStateException("L'instant s massa lluny: cal integrar ms de "
+                + MAX_SEEK_STEPS + " passos amb l'escala de temps actual");
+        }
+        if (timelineStale) restartTimeline();
+        while (simulationTime + dt <= time) {
+            integrate(scale);
+            timeline.record(scale, store, simulationTime);
+        }
+    }
+
+    /**
+     * Escriu l'estat de la simulaci a una instantnia sense barrejar-lo amb un pas en curs.
+     */
+    synchronized void writeSnapshot(DataOutputStream out) throws IOException {
+        SimulationSnapshot.write(out, this, store, tick, simulationTime, initialBodies);
+    }
+
+    /** Retorna el temps simulat en segons des de l'ltim reinici. */
+    public synchronized double getSimulationTime() { return simulationTime; }
+
+    /** Retorna el nombre de passos completats des de la creaci de la simulaci. */
+    public long getTick() { return tick; }
+
+    /** Retorna l'historial de posicions per a les traces orbitals. */
+    public TrailHistory getTrailHistory() { return trailHistory; }
+
+    /** Retorna els fotogrames clau i passos desats per tornar enrere en el temps. */
+    public Timeline getTimeline() { return timeline; }
+
+    /**
+     * Retorna un identificador nic d'aquesta simulaci dins del procs. Juntament amb el tick
+     * i l'poca d'un fotograma identifica el seu contingut (per exemple, per a memries cau).
+     */
+    public long getInstanceId() { return instanceId; }
+
+    /** Retorna l'escala de temps que fa servir el fil de simulaci. */
+    public double getTimeScale() { return timeScale; }
+
+    /** Defineix l'escala de temps que fa servir el fil de simulaci. */
+    public void setTimeScale(double timeScale) { this.timeScale = timeScale; }
+
     /**
      * Retorna una llista immodificable dels cossos celestes actuals.
-     * @return Llista de cossos celestes
+     * Les vistes es creen la primera vegada que es demanen desprs d'un canvi en el conjunt de cossos.
+     * @return Llista de vistes sobre el magatzem de cossos
      */
     public List<CelestialBody> getBodies() {
-        return Collections.unmodifiableList(bodies);
+        List<CelestialBody> views = bodies;
+        if (views != null) return views;
+        synchronized (this) {
+            if (bodies == null) bodies = createViews(store);
+            return bodies;
+        }
     }
 
+    /**
+     * Retorna el magatzem d'arrays primitius sobre el qual treballa el motor fsic.
+     * @return Magatzem actual de cossos
+     */
+    public BodyStore getBodyStore() {
+        return store;
+    }
+
+    /** Retorna el mtode de clcul de forces d'aquesta simulaci. */
+    public ForceSolver getForceSolver() { return forceSolver; }
+
+    /** Defineix el mtode de clcul de forces d'aquesta simulaci. */
+    public void setForceSolver(ForceSolver forceSolver) {
+        this.forceSolver = Objects.requireNonNull(forceSolver);
+        timelineStale = true;
+    }
+
+    /** Retorna l'angle d'obertura (theta) de Barnes-Hut. */
+    public double getTheta() { return theta; }
+
+    /**
+     * Defineix l'angle d'obertura de Barnes-Hut.
+     * Valors petits donen ms precisi; 0 equival al clcul exacte.
+     */
+    public void setTheta(double theta) {
+        if (theta < 0 || Double.isNaN(theta)) {
+            throw new IllegalArgumentException("L'angle d'obertura theta no pot ser negatiu");
+        }
+        this.theta = theta;
+        timelineStale = true;
+    }
+
+    /** Retorna l'integrador temporal d'aquesta simulaci. */
+    public Integrator getIntegrator() { return integrator; }
+
+    /** Defineix l'integrador temporal d'aquesta simulaci. */
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = Objects.requireNonNull(integrator);
+        timelineStale = true;
+    }
+
+    /** Retorna el planificador de passos per blocs (integrador BLOCK_LEAPFROG). */
+    public BlockTimestepScheduler getBlockScheduler() { return blockScheduler; }
+
+    /** Retorna el propagador analtic (integrador KEPLER). */
+    public KeplerPropagator getKeplerPropagator() { return keplerPropagator; }
+
+    /** Retorna els noms dels cossos que s'integren numricament en mode Kepler. */
+    public Set<String> getPerturbedBodies() { return perturbedBodies; }
+
+    /**
+     * Defineix quins cossos s'integren numricament en mode Kepler.
+     * @param names Noms dels cossos pertorbats
+     */
+    public void setPerturbedBodies(Collection<String> names) {
+        this.perturbedBodies = Set.copyOf(names);
+        timelineStale = true;
+    }
+
+    /** Indica si els cossos que xoquen es fusionen. */
+    public boolean isCollisionsEnabled() { return collisionsEnabled; }
+
+    /** Activa o desactiva la detecci i fusi de collisions. */
+    public void setCollisionsEnabled(boolean enabled) {
+        this.collisionsEnabled = enabled;
+        timelineStale = true;
+    }
+
+    /** Retorna el detector de collisions d'aquesta simulaci. */
+    public CollisionDetector getCollisionDetector() { return collisionDetector; }
+
+    /** Retorna el quadtree reutilitzable per al clcul de Barnes-Hut. */
+    public BarnesHutTree getForceTree() { return forceTree; }
+
     /**
      * Desa l'estat actual de la simulaci a la base de dades.
+     * Si hi ha un StatePersister installat, l'escriptura es fa en segon pla (i s'agrupa amb
+     * altres desaments propers); si no, s'escriu ara l'ltim fotograma publicat.
      * @throws SQLException Si hi ha un error en accedir a la base de dades
      */
     public void saveState() throws SQLException {
-        DbManager.saveState(this.bodies);
+        StatePersister persister = StatePersister.installed();
+        if (persister != null) {
+            persister.schedule(this);
+            return;
+        }
+        // Es llegeix del fotograma i no de les vistes perqu el fil de simulaci no el modifica
+        SimulationFrame frame = acquireFrame();
+        int n = frame.size();
+        String[] names = new String[n];
+        double[] x = new double[n], y = new double[n], vx = new double[n], vy = new double[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                names[i] = frame.getName(i);
+                x[i] = frame.getX(i);
+                y[i] = frame.getY(i);
+                vx[i] = frame.getVx(i);
+                vy[i] = frame.getVy(i);
+            }
+        } finally {
+            frame.release();
+        }
+        DbManager.savePositions(names, x, y, vx, vy, n);
     }
 }
 
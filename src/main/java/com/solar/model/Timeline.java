@@ -0,0 +1,192 @@
+package com.solar.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lnia de temps d'una simulaci per poder saltar a un instant ja simulat.
+ * Cada "interval" passos es desa un fotograma clau (l'estat complet dels cossos, comprimit),
+ * i entre dos fotogrames clau es desa l'escala de temps de cada pas. Per tornar a un instant
+ * es restaura el fotograma clau anterior i es repeteixen noms els passos que falten:
+ * amb la mateixa configuraci, els integradors sn deterministes i el resultat s idntic.
+ *
+ * La memria est limitada: si se supera, s'elimina el fotograma clau ms antic amb els
+ * seus passos, de manera que noms es pot tornar als instants ms recents. Un interval ms
+ * curt dona salts ms rpids a canvi de ms memria (i per tant d'una finestra ms curta).
+ */
+public final class Timeline {
+    private static volatile int defaultInterval = 300;
+    private static volatile long defaultMaxBytes = 8L * 1024 * 1024;
+
+    private final int interval;       // Passos entre dos fotogrames clau
+    private final long maxBytes;      // Memria mxima dels fotogrames clau
+
+    private final List<Keyframe> keyframes = new ArrayList<>();
+    private long bytes;
+
+    /**
+     * Crea una lnia de temps amb la configuraci per defecte (vegeu configure).
+     */
+    public Timeline() {
+        this(defaultInterval, defaultMaxBytes);
+    }
+
+    /**
+     * @param interval Passos entre dos fotogrames clau
+     * @param maxBytes Memria mxima de tots els fotogrames clau
+     */
+    public Timeline(int interval, long maxBytes) {
+        if (interval <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("L'interval i la memria dels fotogrames clau han de ser positius");
+        }
+        this.interval = interval;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Defineix la configuraci de les lnies de temps que es cren a partir d'ara.
+     */
+    public static void configure(int interval, long maxBytes) {
+        if (interval <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("L'interval i la memria dels fotogrames clau han de ser positius");
+        }
+        defaultInterval = interval;
+        defaultMaxBytes = maxBytes;
+    }
+
+    /**
+     * Esborra la lnia de temps i la torna a comenar amb l'estat actual.
+     * Es crida en carregar els cossos i quan canvia la configuraci de la simulaci,
+     * perqu els passos desats ja no es podrien repetir igual.
+     */
+    synchronized void restart(BodyStore store, double simulationTime) {
+        keyframes.clear();
+        bytes = 0;
+        addKeyframe(store, simulationTime);
+    }
+
+    /**
+     * Registra un pas ja fet. Si toca, desa un fotograma clau amb l'estat resultant.
+     * @param timeScale Escala de temps del pas
+     * @param simulationTime Temps simulat al final del pas
+     */
+    synchronized void record(double timeScale, BodyStore store, double simulationTime) {
+        if (keyframes.isEmpty()) {
+            // Un sol fotograma clau no cabia a la memria: no hi ha historial fins al reinici segent
+            return;
+        }
+        Keyframe last = keyframes.get(keyframes.size() - 1);
+        bytes -= last.bytes();
+        last.append(timeScale);
+        bytes += last.bytes();
+        if (last.steps >= interval) {
+            addKeyframe(store, simulationTime);
+        } else {
+            trim();
+        }
+    }
+
+    /**
+     * Retorna el fotograma clau ms recent anterior o igual a l'instant indicat i elimina tot el
+     * que ve desprs: en tornar enrere, la simulaci continua per una histria nova.
+     * Els passos desats del fotograma clau es conserven fins que es crida truncate().
+     * @return El fotograma clau, o null si la lnia de temps no arriba tan enrere
+     */
+    synchronized Keyframe rewind(double time) {
+        Keyframe keyframe = keyframeAt(time);
+        if (keyframe == null) return null;
+        while (keyframes.get(keyframes.size() - 1) != keyframe) {
+            bytes -= keyframes.remove(keyframes.size() - 1).bytes();
+        }
+        return keyframe;
+    }
+
+    /**
+     * Retorna el fotograma clau ms recent anterior o igual a l'instant indicat, sense modificar res.
+     * @return El fotograma clau, o null si la lnia de temps no arriba tan enrere
+     */
+    synchronized Keyframe keyframeAt(double time) {
+        for (int k = keyframes.size() - 1; k >= 0; k--) {
+            if (keyframes.get(k).time <= time) return keyframes.get(k);
+        }
+        return null;
+    }
+
+    /**
+     * Deixa noms els primers passos desats del fotograma clau (el ms recent).
+     */
+    synchronized void truncate(Keyframe keyframe, int steps) {
+        bytes -= keyframe.bytes();
+        keyframe.steps = Math.min(keyframe.steps, steps);
+        bytes += keyframe.bytes();
+    }
+
+    /** Retorna el nombre de fotogrames clau desats. */
+    public synchronized int getKeyframeCount() { return keyframes.size(); }
+
+    /** Retorna la memria que ocupen els fotogrames clau, en bytes. */
+    public synchronized long getBytes() { return bytes; }
+
+    /** Retorna la memria mxima dels fotogrames clau, en bytes. */
+    public long getMaxBytes() { return maxBytes; }
+
+    /** Retorna el nombre de passos entre dos fotogrames clau. */
+    public int getInterval() { return interval; }
+
+    /**
+     * Desa un fotograma clau amb l'estat actual i elimina els ms antics (amb els seus passos)
+     * fins que la memria no supera el mxim (vegeu trim).
+     */
+    private void addKeyframe(BodyStore store, double simulationTime) {
+        Keyframe keyframe = new Keyframe(simulationTime, SimulationSnapshot.captureBodies(store));
+        keyframes.add(keyframe);
+        bytes += keyframe.bytes();
+        trim();
+    }
+
+    /**
+     * Elimina els fotogrames clau ms antics, amb els seus passos, mentre se supera la memria
+     * mxima. Si el ms recent tot sol ja la supera, tamb s'elimina i la lnia de temps queda buida.
+     */
+    private void trim() {
+        while (bytes > maxBytes && !keyframes.isEmpty()) {
+            bytes -= keyframes.remove(0).bytes();
+        }
+    }
+
+    /**
+     * Estat complet dels cossos en un instant i escales de temps dels passos que el segueixen.
+     */
+    static final class Keyframe {
+        final double time;
+        private final byte[] bodies;
+        private double[] scales = new double[16];
+        private int steps;
+
+        Keyframe(double time, byte[] bodies) {
+            this.time = time;
+            this.bodies = bodies;
+        }
+
+        /** Reconstrueix els cossos d'aquest fotograma clau en un magatzem nou. */
+        BodyStore restore() {
+            return SimulationSnapshot.restoreBodies(bodies);
+        }
+
+        /** Nombre de passos desats desprs d'aquest fotograma clau. */
+        int steps() { return steps; }
+
+        /** Escala de temps del pas indicat. */
+        double scale(int step) { return scales[step]; }
+
+        private void append(double timeScale) {
+            if (steps == scales.length) scales = Arrays.copyOf(scales, steps * 2);
+            scales[steps++] = timeScale;
+        }
+
+        private long bytes() {
+            return bodies.length + (long) scales.length * Double.BYTES;
+        }
+    }
+}
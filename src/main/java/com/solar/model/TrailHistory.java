@@ -0,0 +1,202 @@
+package com.solar.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Historial de posicions dels cossos massius per dibuixar-ne les traces orbitals.
+ * Cada cos t un buffer circular de mida fixa; es desa una posici cada "stride" passos.
+ * Les mostres (float x, y) es guarden fora del heap en un sol buffer directe que noms es
+ * torna a crear quan canvia el conjunt de cossos, de manera que una simulaci llarga no fa
+ * crixer el heap ni genera feina per al recollector.
+ *
+ * Les partcules de prova no tenen traa. Quan canvia el conjunt de cossos (fusions, cossos nous)
+ * les traces es conserven per nom; un salt en el temps o un reinici les esborra.
+ */
+public final class TrailHistory {
+    private static volatile int defaultCapacity = 512;
+    private static volatile int defaultStride = 4;
+
+    private final int capacity;       // Mostres per cos
+    private final int stride;         // Passos entre mostres
+
+    // Mostra k de la traa t a les posicions (t * capacity + k) * 2 (x) i + 1 (y)
+    private FloatBuffer samples = allocate(0, 0);
+    private FloatBuffer spare = allocate(0, 0);   // Mateixa mida, per reordenar les traces
+    private int slots;                            // Traces que hi caben als buffers
+    private String[] names = new String[0];
+    private int[] storeIndex = new int[0];   // ndex al magatzem de cada traa
+    private int[] valid = new int[0];        // Mostres vlides de cada traa
+    private int bodies;
+    private int head;                        // Posici on s'escriur la propera mostra
+
+    private BodyStore trackedStore;
+    private long trackedVersion = -1;
+
+    /**
+     * Crea un historial amb la configuraci per defecte (vegeu configure).
+     */
+    public TrailHistory() {
+        this(defaultCapacity, defaultStride);
+    }
+
+    /**
+     * @param capacity Nombre de posicions que es guarden per cos
+     * @param stride Passos de simulaci entre dues posicions desades
+     */
+    public TrailHistory(int capacity, int stride) {
+        if (capacity < 2 || stride <= 0) {
+            throw new IllegalArgumentException("La traa ha de tenir almenys 2 punts i un interval positiu");
+        }
+        this.capacity = capacity;
+        this.stride = stride;
+    }
+
+    /**
+     * Defineix la configuraci dels historials que es cren a partir d'ara.
+     */
+    public static void configure(int capacity, int stride) {
+        if (capacity < 2 || stride <= 0) {
+            throw new IllegalArgumentException("La traa ha de tenir almenys 2 punts i un interval positiu");
+        }
+        defaultCapacity = capacity;
+        defaultStride = stride;
+    }
+
+    /**
+     * Desa la posici actual dels cossos massius si toca en aquest pas.
+     */
+    synchronized void record(BodyStore store, long tick) {
+        if (tick % stride != 0) return;
+        if (store != trackedStore || store.getStructureVersion() != trackedVersion) {
+            remap(store);
+        }
+        double[] x = store.getXs(), y = store.getYs();
+        for (int t = 0; t < bodies; t++) {
+            int i = storeIndex[t];
+            int pos = (t * capacity + head) * 2;
+            samples.put(pos, (float) x[i]);
+            samples.put(pos + 1, (float) y[i]);
+            if (valid[t] < capacity) valid[t]++;
+        }
+        head = (head + 1) % capacity;
+    }
+
+    /**
+     * Esborra totes les traces (per exemple, desprs d'un salt en el temps).
+     */
+    synchronized void clear() {
+        Arrays.fill(valid, 0);
+        head = 0;
+    }
+
+    /**
+     * Retorna la traa de cada cos reduda com a molt al nombre de punts indicat.
+     * Els punts es trien repartits uniformement entre la posici ms antiga i la ms recent,
+     * que sempre s'inclouen.
+     * @param maxPoints Nombre mxim de punts per cos (almenys 2)
+     */
+    public synchronized List<Trail> getTrails(int maxPoints) {
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("Cal demanar almenys 2 punts per traa");
+        }
+        List<Trail> trails = new ArrayList<>(bodies);
+        for (int t = 0; t < bodies; t++) {
+            int v = valid[t];
+            int m = Math.min(v, maxPoints);
+            float[] tx = new float[m], ty = new float[m];
+            int oldest = head - v + capacity;
+            for (int j = 0; j < m; j++) {
+                long p = m == v ? j : Math.round((double) j * (v - 1) / (m - 1));
+                int pos = (t * capacity + (int) ((oldest + p) % capacity)) * 2;
+                tx[j] = samples.get(pos);
+                ty[j] = samples.get(pos + 1);
+            }
+            trails.add(new Trail(names[t], tx, ty));
+        }
+        return trails;
+    }
+
+    /** Retorna el nombre de posicions que es guarden per cos. */
+    public int getCapacity() { return capacity; }
+
+    /** Retorna els passos de simulaci entre dues posicions desades. */
+    public int getStride() { return stride; }
+
+    /** Retorna la memria fora del heap que ocupa l'historial, en bytes. */
+    public synchronized long getOffHeapBytes() { return (samples.capacity() + spare.capacity()) * (long) Float.BYTES; }
+
+    /**
+     * Adapta l'historial a un conjunt de cossos nou conservant, per nom, les traces que ja hi havia.
+     * Les traces es copien al buffer de reserva, que passa a ser el principal; els buffers noms
+     * es tornen a crear quan el nombre de cossos ja no hi cap o n'ocupa menys d'una quarta part.
+     */
+    private void remap(BodyStore store) {
+        int[] massive = store.getMassiveIndices();
+        int n = store.getMassiveCount();
+        if (n > slots || n < slots / 4) {
+            slots = n > slots ? Math.max(n, slots + slots / 2) : n;
+            spare = allocate(slots, capacity);
+        }
+
+        Map<String, Integer> previous = new HashMap<>();
+        for (int t = 0; t < bodies; t++) previous.put(names[t], t);
+
+        int ringFloats = capacity * 2;
+        String[] newNames = new String[n];
+        int[] newIndex = new int[n];
+        int[] newValid = new int[n];
+        for (int t = 0; t < n; t++) {
+            newIndex[t] = massive[t];
+            newNames[t] = store.getName(massive[t]);
+            Integer old = previous.get(newNames[t]);
+            if (old != null && valid[old] > 0) {
+                for (int k = 0; k < ringFloats; k++) {
+                    spare.put(t * ringFloats + k, samples.get(old * ringFloats + k));
+                }
+                newValid[t] = valid[old];
+            }
+        }
+
+        FloatBuffer previousSamples = samples;
+        samples = spare;
+        spare = previousSamples.capacity() == samples.capacity() ? previousSamples : allocate(slots, capacity);
+        names = newNames;
+        storeIndex = newIndex;
+        valid = newValid;
+        bodies = n;
+        trackedStore = store;
+        trackedVersion = store.getStructureVersion();
+    }
+
+    private static FloatBuffer allocate(int bodies, int capacity) {
+        return ByteBuffer.allocateDirect(bodies * capacity * 2 * Float.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    /**
+     * Traa d'un cos: posicions de la ms antiga a la ms recent.
+     */
+    public static final class Trail {
+        private final String name;
+        private final float[] x, y;
+
+        Trail(String name, float[] x, float[] y) {
+            this.name = name;
+            this.x = x;
+            this.y = y;
+        }
+
+        public String getName() { return name; }
+        public int size() { return x.length; }
+        public float getX(int k) { return x[k]; }
+        public float getY(int k) { return y[k]; }
+    }
+}
@@ -56,7 +56,7 @@ function renderPlanetList(planets) {
         const div = document.createElement('div');
         div.className = 'planet-item';
         div.innerHTML = `
-            <strong>${planet.name}</strong>
+            <strong>${planet.name}</strong>${planet.particle ? ' <em>(partícula)</em>' : ''}
             ${planet.name !== 'Sun' ? 
                 `<button onclick="deletePlanet('${planet.name}')" class="control-btn" style="background:#c9302c;">
                     Delete
@@ -75,7 +75,8 @@ async function addPlanet() {
         semiMajorAxis: parseFloat(document.getElementById('newAxis').value),
         eccentricity: parseFloat(document.getElementById('newEccentricity').value),
         radius: parseInt(document.getElementById('newRadius').value),
-        color: document.getElementById('newColor').value
+        color: document.getElementById('newColor').value,
+        particle: document.getElementById('newParticle').checked
     };
 
     try {
@@ -11,8 +11,15 @@ function getSelectedPlanets() {
 
 /* ==================== ESTAT GLOBAL ==================== */
 let bodies = []; // Llista de cossos celestes actuals
-let planetTraces = new Map(); // Traces orbitals dels planetes
+let bodyMetadata = []; // Nom, color i radi de cada cos (rebuts un sol cop pel stream)
+let frameStream = null; // Connexió Server-Sent Events (null si es fa servir el sondeig)
+let lastTick = -1; // Últim pas rebut pel sondeig (per al long-poll)
+let lastSimulation = -1; // Simulació d'on s'ha rebut aquest pas
+let planetTraces = new Map(); // Traces orbitals dels planetes (nom -> {x: [], y: []}), rebudes del servidor
 const MAX_TRACE_POINTS = 500; // Punts màxims per traça orbital
+const TRACE_REFRESH_MS = 250; // Interval mínim entre dues peticions de traces
+let traceRequest = null; // Petició de traces en curs
+let lastTraceFetch = 0; // Moment de l'última petició de traces
 
 /* ==================== ELEMENTS UI ==================== */
 const canvas = document.getElementById('solarCanvas');
@@ -89,7 +96,12 @@ document.getElementById('zoomOut').addEventListener('click', async () => {
 
 // Control de velocitat de simulació
 timeSlider.addEventListener('input', async () => {
-    await updateSimulation();
+    if (frameStream) {
+        // Amb streaming només cal desar la nova escala de temps
+        await fetch(`${BASE_PATH}/api/simulation?scale=${timeSlider.value}`);
+    } else {
+        await updateSimulation();
+    }
 });
 
 document.getElementById('startSim').addEventListener('click', async () => {
@@ -146,22 +158,84 @@ document.getElementById('resetSim').addEventListener('click', async () => {
 
 /**
  * Actualitza l'estat de la simulació des del servidor
+ * @param {boolean} wait Si és cert, el servidor espera a tenir un pas posterior a l'últim rebut
+ * @returns {boolean} Si s'ha pogut actualitzar
  */
-async function updateSimulation() {
+async function updateSimulation(wait = false) {
     try {
-        const response = await fetch(`${BASE_PATH}/api/simulation?scale=${timeSlider.value}`);
+        // Amb la mida del canvas el servidor només envia els cossos visibles
+        const since = wait && lastTick >= 0 ? `&since=${lastTick}&simulation=${lastSimulation}` : '';
+        const response = await fetch(`${BASE_PATH}/api/simulation?scale=${timeSlider.value}`
+            + `&width=${canvas.width}&height=${canvas.height}${since}`);
         const data = await response.json();
+        if (data.error) throw new Error(data.error);
         
+        lastTick = data.tick;
+        lastSimulation = data.simulation;
         bodies = data.bodies;
         currentScale = parseFloat(data.scale) || 173;
         scaleDisplay.textContent = `1 AU = ${currentScale.toFixed(0)}px`;
 
         render();
         hideLoading();
+        return true;
 
     } catch (error) {
         console.error("Error en actualitzar simulació:", error);
         hideLoading();
+        return false;
+    }
+}
+
+/**
+ * Obre la connexió de streaming: el servidor envia les metadades dels cossos un cop
+ * i després només les posicions a cada pas. Si el navegador no admet EventSource
+ * o la connexió falla, es torna al sondeig periòdic.
+ */
+function startFrameStream() {
+    if (!window.EventSource) {
+        startPolling();
+        return;
+    }
+    frameStream = new EventSource(`${BASE_PATH}/api/simulation/stream`);
+
+    frameStream.addEventListener('metadata', (e) => {
+        bodyMetadata = JSON.parse(e.data).bodies;
+    });
+
+    frameStream.addEventListener('frame', (e) => {
+        const frame = JSON.parse(e.data);
+        bodies = bodyMetadata.map((meta, i) => ({
+            name: meta.name,
+            color: meta.color,
+            radius: meta.radius,
+            worldX: frame.x[i],
+            worldY: frame.y[i]
+        }));
+        currentScale = frame.scale || 173;
+        scaleDisplay.textContent = `1 AU = ${currentScale.toFixed(0)}px`;
+        render();
+        hideLoading();
+    });
+
+    frameStream.onerror = () => {
+        if (frameStream.readyState === EventSource.CLOSED) {
+            console.warn("Streaming no disponible, es torna al sondeig");
+            frameStream = null;
+            startPolling();
+        }
+    };
+}
+
+/**
+ * Sondeja l'estat de la simulació (mode sense streaming) amb long-poll: cada petició
+ * espera al servidor fins que hi ha un pas nou, de manera que es rep cada pas un sol cop.
+ */
+async function startPolling() {
+    while (true) {
+        if (!await updateSimulation(true)) {
+            await new Promise(resolve => setTimeout(resolve, 1000)); // Espera abans de reintentar
+        }
     }
 }
 
@@ -193,6 +267,9 @@ function render() {
         ctx.fillStyle = body.color;
         ctx.fill();
 
+        // Els grups de cossos agregats pel servidor no porten etiqueta
+        if (body.aggregate) return;
+
         // Etiqueta el planeta
         ctx.fillStyle = 'white';
         ctx.font = '12px Arial';
@@ -214,17 +291,18 @@ function calculateZoomMultiplier() {
  * Actualitza les traces orbitals dels planetes
  */
 function updateTraces() {
-    bodies.forEach(body => {
-        if (!planetTraces.has(body.name)) {
-            planetTraces.set(body.name, []);
-        }
-        planetTraces.get(body.name).push({ x: body.worldX, y: body.worldY });
-
-        // Limita el nombre de punts emmagatzemats
-        if (planetTraces.get(body.name).length > MAX_TRACE_POINTS) {
-            planetTraces.get(body.name).shift();
-        }
-    });
+    // El servidor guarda l'historial de posicions: aquí només es refresca de tant en tant
+    const now = performance.now();
+    if (traceRequest || now - lastTraceFetch < TRACE_REFRESH_MS) return;
+    lastTraceFetch = now;
+    traceRequest = fetch(`${BASE_PATH}/api/simulation/trails?points=${MAX_TRACE_POINTS}`)
+        .then(response => response.json())
+        .then(data => {
+            if (data.error) throw new Error(data.error);
+            planetTraces = new Map(data.trails.map(trail => [trail.name, trail]));
+        })
+        .catch(error => console.error("Error en obtenir les traces:", error))
+        .finally(() => traceRequest = null);
 }
 
 /**
@@ -232,15 +310,15 @@ function updateTraces() {
  */
 function drawTraces() {
     planetTraces.forEach((points, name) => {
-        if (points.length < 2) return;
+        if (points.x.length < 2) return;
         
         ctx.beginPath();
-        const start = viewportToScreen(points[0].x, points[0].y);
+        const start = viewportToScreen(points.x[0], points.y[0]);
         ctx.moveTo(start.x, start.y);
 
         // Connexió de tots els punts de la traça
-        for (let i = 1; i < points.length; i++) {
-            const pos = viewportToScreen(points[i].x, points[i].y);
+        for (let i = 1; i < points.x.length; i++) {
+            const pos = viewportToScreen(points.x[i], points.y[i]);
             ctx.lineTo(pos.x, pos.y);
         }
 
@@ -276,10 +354,10 @@ function resizeCanvas() {
     centerY = canvas.height / 2;
 
     // Notifica al servidor el canvi de mida
-    fetch(`${BASE_PATH}/api/simulation?resetViewport=true`);
+    fetch(`${BASE_PATH}/api/simulation?width=${canvas.width}&height=${canvas.height}`);
 }
 
 // Configura events i inicia la simulació
 window.addEventListener('resize', resizeCanvas);
 resizeCanvas();
-setInterval(updateSimulation, 1000 / 30); // Actualitza a ~30fps
\ No newline at end of file
+startFrameStream();
\ No newline at end of file
@@ -0,0 +1,87 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import com.solar.model.CelestialBody;
+import java.util.Random;
+
+/**
+ * Microbenchmark del clcul exacte de forces: compara parells per segon del bucle escalar
+ * i del nucli SIMD sobre el mateix conjunt de cossos aleatoris.
+ *
+ * Es compila amb el nucli (vegeu VectorForceKernel).
+ * s: java --add-modules jdk.incubator.vector -cp build/classes:build/vector com.solar.ForceKernelBenchmark [cossos] [segons]
+ */
+public final class ForceKernelBenchmark {
+    private static final double AU = 1.496e11;
+    private static final VectorForceKernel KERNEL = new VectorForceKernel();
+
+    private ForceKernelBenchmark() {}
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+
+        BodyStore store = randomStore(n);
+        long pairs = (long) n * (n - 1) / 2;
+
+        double scalar = measure(store, seconds, false);
+        System.out.printf("Escalar: %.3e parells/s%n", pairs * scalar);
+
+        if (!PhysicsEngine.setVectorKernelEnabled(true)) {
+            System.out.println("API Vector no disponible: cal --add-modules jdk.incubator.vector");
+            return;
+        }
+        double[] scalarAx = store.getAxs().clone();
+        double vector = measure(store, seconds, true);
+        System.out.printf("SIMD (%d carrils): %.3e parells/s (x%.2f)%n",
+                KERNEL.lanes(), pairs * vector, vector / scalar);
+        System.out.printf("Diferncia relativa mxima: %.2e%n", maxRelativeDifference(scalarAx, store.getAxs(), n));
+    }
+
+    /**
+     * Executa el nucli indicat durant el temps indicat (desprs d'un escalfament) i retorna
+     * el nombre d'avaluacions completes per segon.
+     */
+    private static double measure(BodyStore store, double seconds, boolean vector) {
+        long budget = (long) (seconds * 1e9);
+        for (long end = System.nanoTime() + budget / 2; System.nanoTime() < end; ) {
+            run(store, vector);
+        }
+        int runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            run(store, vector);
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return runs / (elapsed / 1e9);
+    }
+
+    private static void run(BodyStore store, boolean vector) {
+        if (vector) {
+            KERNEL.computeAccelerations(store, PhysicsEngine.G, PhysicsEngine.SOFTENING);
+        } else {
+            PhysicsEngine.calculateScalarAccelerations(store);
+        }
+    }
+
+    private static BodyStore randomStore(int n) {
+        Random random = new Random(42);
+        BodyStore store = new BodyStore(n);
+        for (int i = 0; i < n; i++) {
+            store.add(new CelestialBody("B" + i, 1e20 + random.nextDouble() * 1e27,
+                    (random.nextDouble() - 0.5) * 60 * AU, (random.nextDouble() - 0.5) * 60 * AU,
+                    0, 0, 1, "#ffffff"));
+        }
+        return store;
+    }
+
+    private static double maxRelativeDifference(double[] a, double[] b, int n) {
+        double max = 0;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]) / Math.max(Math.abs(a[i]), 1e-300));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,95 @@
+package com.solar;
+
+import com.solar.model.BodyStore;
+import java.util.Arrays;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Clcul exacte de les acceleracions amb instruccions SIMD (API Vector del JDK).
+ * El bucle interior sobre j processa diversos cossos alhora en els carrils d'un DoubleVector
+ * i fa servir l'invers de l'arrel quadrada per obtenir 1/r amb una sola divisi per carril.
+ *
+ * s l'nica classe que depn del mdul jdk.incubator.vector i per aix no forma part de les
+ * fonts principals: es compila a part, contra les classes de l'aplicaci, i s'installa com a
+ * jar opcional a WEB-INF/lib:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp build/classes -d build/vector src/vector/java/com/solar/*.java
+ * jar cf WebContent/WEB-INF/lib/vector-kernel.jar -C build/vector .
+ * </pre>
+ * PhysicsEngine la carrega per reflexi noms si el parmetre de context "vectorKernel" s cert
+ * i la JVM s'ha arrencat amb --add-modules jdk.incubator.vector; si no, es fa servir el bucle escalar.
+ */
+final class VectorForceKernel implements ForceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /** Retorna el nombre de carrils (doubles) que es processen per instrucci. */
+    @Override
+    public int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Calcula les acceleracions de tots els cossos i les escriu als buffers del magatzem.
+     * Recorre el triangle de parells i < j com el bucle escalar i aplica la 3a llei de Newton
+     * escrivint a j amb crregues i desades vectorials.
+     */
+    @Override
+    public void computeAccelerations(BodyStore store, double G, double softening) {
+        int n = store.size();
+        double[] x = store.getXs(), y = store.getYs(), mass = store.getMasses();
+        double[] ax = store.getAxs(), ay = store.getAys();
+        Arrays.fill(ax, 0, n, 0.0);
+        Arrays.fill(ay, 0, n, 0.0);
+
+        int lanes = SPECIES.length();
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+
+        for (int i = 0; i < n; i++) {
+            double xi = x[i], yi = y[i], mi = mass[i];
+            DoubleVector vxi = DoubleVector.broadcast(SPECIES, xi);
+            DoubleVector vyi = DoubleVector.broadcast(SPECIES, yi);
+            DoubleVector gmi = DoubleVector.broadcast(SPECIES, G * mi);
+            DoubleVector sumX = DoubleVector.zero(SPECIES);
+            DoubleVector sumY = DoubleVector.zero(SPECIES);
+
+            int j = i + 1;
+            int upper = j + SPECIES.loopBound(n - j);
+            for (; j < upper; j += lanes) {
+                DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(vxi);
+                DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(vyi);
+                DoubleVector rSquared = dx.fma(dx, dy.mul(dy)).add(softening);
+                DoubleVector invR = one.div(rSquared.lanewise(VectorOperators.SQRT));
+                DoubleVector invR3 = invR.mul(invR).mul(invR);
+
+                // Atracci de j sobre i: G m_j / r
+                DoubleVector gmj = DoubleVector.fromArray(SPECIES, mass, j).mul(G).mul(invR3);
+                sumX = dx.fma(gmj, sumX);
+                sumY = dy.fma(gmj, sumY);
+
+                // Reacci sobre j: -G m_i / r
+                DoubleVector reaction = gmi.mul(invR3);
+                DoubleVector.fromArray(SPECIES, ax, j).sub(reaction.mul(dx)).intoArray(ax, j);
+                DoubleVector.fromArray(SPECIES, ay, j).sub(reaction.mul(dy)).intoArray(ay, j);
+            }
+
+            double axi = sumX.reduceLanes(VectorOperators.ADD);
+            double ayi = sumY.reduceLanes(VectorOperators.ADD);
+
+            // Cua escalar per als cossos que no omplen un vector sencer
+            for (; j < n; j++) {
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double rSquared = dx * dx + dy * dy + softening;
+                double g = G / (rSquared * Math.sqrt(rSquared));
+                axi += g * mass[j] * dx;
+                ayi += g * mass[j] * dy;
+                ax[j] -= g * mi * dx;
+                ay[j] -= g * mi * dy;
+            }
+            ax[i] += axi;
+            ay[i] += ayi;
+        }
+    }
+}